@@ -2,7 +2,10 @@ package com.insthync.simplescreenrtmp;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
@@ -29,8 +32,23 @@ public class MainActivity extends Activity implements View.OnClickListener {
     // Now, Using service
     //private ScreenRecorder mRecorder;
     private Button mButton;
+    // Pausing keeps the service, encoders and connection up, stopping is left to the notification
+    private boolean mIsPaused;
     boolean authorized = false;
 
+    private BroadcastReceiver mServiceStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!ScreenRecorderService.ACTION_STOPPED.equals(intent.getAction()))
+                return;
+            // Stopped from the notification or by the service itself, the projection is gone with it
+            mCreateScreenCaptureResultCode = 0;
+            mCreateScreenCaptureResultData = null;
+            mIsPaused = false;
+            mButton.setText("Restart recorder");
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -39,6 +57,7 @@ public class MainActivity extends Activity implements View.OnClickListener {
         mButton.setOnClickListener(this);
         //noinspection ResourceType
         mMediaProjectionManager = (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
+        registerReceiver(mServiceStateReceiver, new IntentFilter(ScreenRecorderService.ACTION_STOPPED));
         verifyPermissions();
     }
 
@@ -90,7 +109,8 @@ public class MainActivity extends Activity implements View.OnClickListener {
 
             if (mCreateScreenCaptureResultCode != 0 && mCreateScreenCaptureResultData != null) {
 
-                mButton.setText("Stop Recorder");
+                mButton.setText("Pause Recorder");
+                mIsPaused = false;
 
                 Log.d("@@", "Starting ScreenRecorderService...");
 
@@ -117,10 +137,18 @@ public class MainActivity extends Activity implements View.OnClickListener {
             mRecorder = null;
             */
 
-            final Intent stopCastIntent = new Intent(ScreenRecorderService.ACTION_STOP);
-            sendBroadcast(stopCastIntent);
+            if (mIsPaused) {
+                final Intent resumeCastIntent = new Intent(ScreenRecorderService.ACTION_RESUME);
+                sendBroadcast(resumeCastIntent);
 
-            mButton.setText("Restart recorder");
+                mButton.setText("Pause Recorder");
+            } else {
+                final Intent pauseCastIntent = new Intent(ScreenRecorderService.ACTION_PAUSE);
+                sendBroadcast(pauseCastIntent);
+
+                mButton.setText("Resume recorder");
+            }
+            mIsPaused = !mIsPaused;
         } else {
             Intent captureIntent = mMediaProjectionManager.createScreenCaptureIntent();
             startActivityForResult(captureIntent, REQUEST_CODE);
@@ -131,6 +159,7 @@ public class MainActivity extends Activity implements View.OnClickListener {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(mServiceStateReceiver);
         // Now, Using service
         /*
         if(mRecorder != null){
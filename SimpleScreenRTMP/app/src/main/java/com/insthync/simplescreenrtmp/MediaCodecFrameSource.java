@@ -0,0 +1,94 @@
+package com.insthync.simplescreenrtmp;
+
+import android.media.MediaCodec;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.insthync.simplescreenrtmp.core.EncodedFrame;
+import com.insthync.simplescreenrtmp.core.FrameSink;
+import com.insthync.simplescreenrtmp.core.FrameSource;
+import com.insthync.simplescreenrtmp.core.TimestampBase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts the output side of a started {@link MediaCodec} encoder to a {@link FrameSource}.
+ */
+public class MediaCodecFrameSource implements FrameSource {
+    private static final String TAG = "MediaCodecFrameSource";
+
+    private final MediaCodec mEncoder;
+    private final int mType;
+    private final TimestampBase mTimestampBase;
+    private final long mTimeoutUs;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private long mTryingAgainTime;
+
+    public MediaCodecFrameSource(MediaCodec encoder, int type, TimestampBase timestampBase, long timeoutUs) {
+        mEncoder = encoder;
+        mType = type;
+        mTimestampBase = timestampBase;
+        mTimeoutUs = timeoutUs;
+    }
+
+    @Override
+    public int drain(FrameSink sink) {
+        int count = 0;
+        while (true) {
+            int index = mEncoder.dequeueOutputBuffer(mBufferInfo, mTimeoutUs);
+
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                Log.d(TAG, "Format changed " + mEncoder.getOutputFormat());
+            } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mTryingAgainTime == 0)
+                    mTryingAgainTime = System.currentTimeMillis();
+                //Log.d(TAG, "Contents are not ready, trying again...");
+                break;
+            } else if (index >= 0) {
+                if (mTryingAgainTime > 0) {
+                    long tryAgainAfterTime = System.currentTimeMillis() - mTryingAgainTime;
+                    Log.d(TAG, "Tried again after " + tryAgainAfterTime + " ms");
+                    mTryingAgainTime = 0;
+                }
+                if (mBufferInfo.size > 0) {
+                    ByteBuffer encodedData = mEncoder.getOutputBuffer(index);
+                    encodedData.position(mBufferInfo.offset);
+                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
+
+                    byte[] bytes = new byte[encodedData.remaining()];
+                    encodedData.get(bytes);
+
+                    int flags = 0;
+                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0)
+                        flags |= EncodedFrame.FLAG_CODEC_CONFIG;
+                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0)
+                        flags |= EncodedFrame.FLAG_KEY_FRAME;
+
+                    sink.write(new EncodedFrame(mType, flags, mTimestampBase.toMillis(mBufferInfo.presentationTimeUs), bytes));
+                    count++;
+                }
+                mEncoder.releaseOutputBuffer(index, false);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Ask a video encoder to make its next frame a key frame.
+     */
+    public void requestKeyFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mEncoder.setParameters(params);
+    }
+
+    public MediaCodec getEncoder() {
+        return mEncoder;
+    }
+
+    @Override
+    public void release() {
+        mEncoder.stop();
+        mEncoder.release();
+    }
+}
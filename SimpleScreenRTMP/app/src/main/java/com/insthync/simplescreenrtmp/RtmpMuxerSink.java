@@ -0,0 +1,107 @@
+package com.insthync.simplescreenrtmp;
+
+import android.util.Log;
+
+import com.insthync.simplescreenrtmp.core.AbortableFrameSink;
+import com.insthync.simplescreenrtmp.core.EncodedFrame;
+import com.insthync.simplescreenrtmp.core.ReconnectFilter;
+
+import net.butterflytv.rtmp_client.RTMPMuxer;
+
+/**
+ * Publishes frames to an RTMP server through librtmp. After a failed write the connection is
+ * opened again on a later write, at most once per {@link #RECONNECT_INTERVAL_MS}. A new connection
+ * starts with the last codec config, video continues with the next key frame.
+ */
+public class RtmpMuxerSink implements AbortableFrameSink {
+    private static final String TAG = "RtmpMuxerSink";
+    private static final long RECONNECT_INTERVAL_MS = 2000;
+
+    private RTMPMuxer mRTMPMuxer = new RTMPMuxer();
+    private final ReconnectFilter mReconnectFilter = new ReconnectFilter();
+    private String mUrl;
+    private int mWidth;
+    private int mHeight;
+    private boolean mIsBroken;
+    private long mOpenTime;
+    private volatile boolean mIsClosed;
+
+    /**
+     * @return librtmp result, negative on failure
+     */
+    public int open(String url, int width, int height) {
+        mUrl = url;
+        mWidth = width;
+        mHeight = height;
+        mOpenTime = System.currentTimeMillis();
+        int result = mRTMPMuxer.open(url, width, height);
+        Log.d(TAG, "RTMP_URL open result: " + result);
+        mIsBroken = result < 0;
+        return result;
+    }
+
+    public boolean isConnected() {
+        return mRTMPMuxer != null && !mIsBroken && mRTMPMuxer.isConnected() != 0;
+    }
+
+    private boolean reconnect(int timestamp) {
+        if (mIsClosed || mUrl == null || System.currentTimeMillis() - mOpenTime < RECONNECT_INTERVAL_MS)
+            return false;
+        Log.d(TAG, "Reconnecting to " + mUrl);
+        if (mRTMPMuxer != null)
+            mRTMPMuxer.close();
+        mRTMPMuxer = new RTMPMuxer();
+        if (open(mUrl, mWidth, mHeight) < 0 || !isConnected())
+            return false;
+        for (EncodedFrame config : mReconnectFilter.onConnected(timestamp)) {
+            if (send(config) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        mReconnectFilter.remember(frame);
+        if (!isConnected() && !reconnect(frame.timestamp))
+            return -1;
+        int action = mReconnectFilter.filter(frame);
+        if (action == ReconnectFilter.SKIP)
+            return 0;
+        if (action == ReconnectFilter.DROP)
+            return -1;
+        return send(frame);
+    }
+
+    private int send(EncodedFrame frame) {
+        int writeResult;
+        if (frame.isVideo()) {
+            writeResult = mRTMPMuxer.writeVideo(frame.data, 0, frame.data.length, frame.timestamp);
+            Log.d(TAG, "RTMP write video result: " + writeResult + " timestamp: " + frame.timestamp + " byte[] length: " + frame.data.length + " is header: " + frame.isCodecConfig());
+        } else {
+            writeResult = mRTMPMuxer.writeAudio(frame.data, 0, frame.data.length, frame.timestamp);
+            Log.d(TAG, "RTMP write audio result: " + writeResult + " timestamp: " + frame.timestamp + " byte[] length: " + frame.data.length + " is header: " + frame.isCodecConfig());
+        }
+        if (writeResult < 0)
+            mIsBroken = true;
+        return writeResult;
+    }
+
+    /**
+     * librtmp frees its session when closed, so a write blocked in it runs into its own timeout.
+     * Only reconnecting is stopped here.
+     */
+    @Override
+    public void abort() {
+        mIsClosed = true;
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+        if (mRTMPMuxer != null) {
+            mRTMPMuxer.close();
+            mRTMPMuxer = null;
+        }
+    }
+}
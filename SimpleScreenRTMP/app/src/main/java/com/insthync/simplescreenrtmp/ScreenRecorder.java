@@ -9,10 +9,12 @@ import android.media.projection.MediaProjection;
 import android.util.Log;
 import android.view.Surface;
 
-import net.butterflytv.rtmp_client.RTMPMuxer;
+import com.insthync.simplescreenrtmp.core.CodecConfigFilter;
+import com.insthync.simplescreenrtmp.core.EncodedFrame;
+import com.insthync.simplescreenrtmp.core.FrameSink;
+import com.insthync.simplescreenrtmp.core.TimestampBase;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ScreenRecorder extends Thread {
@@ -22,34 +24,38 @@ public class ScreenRecorder extends Thread {
     private int mHeight;
     private int mBitRate;
     private int mDpi;
+    private String mRtmpUrl;
     private MediaProjection mMediaProjection;
     // parameters for the encoder
     private static final String MIME_TYPE = "video/avc"; // H.264 Advanced Video Coding
     private static final int FRAME_RATE = 15;
     private static final int IFRAME_INTERVAL = 1; // 1 seconds between I-frames
     private static final int TIMEOUT_US = 10000;
-    // RTMP_URL Constraints
+    // Default RTMP_URL
     private static final String RTMP_URL = "rtmp://188.166.191.129/live/test";
 
     private MediaCodec mEncoder;
     private MediaFormat mFormat;
     private Surface mSurface;
     private AtomicBoolean mQuit = new AtomicBoolean(false);
-    private MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
     private VirtualDisplay mVirtualDisplay;
+    private MediaCodecFrameSource mSource;
     // RTMP_URL
-    private RTMPMuxer mRTMPMuxer;
-    private long startTime;
-    private long tryingAgainTime;
-    private boolean isSetHeader;
+    private RtmpMuxerSink mRtmpSink;
+    private FrameSink mSink;
 
-    public ScreenRecorder(int width, int height, int bitrate, int dpi, MediaProjection mp) {
+    public ScreenRecorder(int width, int height, int bitrate, int dpi, MediaProjection mp, String rtmpUrl) {
         super(TAG);
         mWidth = width;
         mHeight = height;
         mBitRate = bitrate;
         mDpi = dpi;
         mMediaProjection = mp;
+        mRtmpUrl = rtmpUrl;
+    }
+
+    public ScreenRecorder(int width, int height, int bitrate, int dpi, MediaProjection mp) {
+        this(width, height, bitrate, dpi, mp, RTMP_URL);
     }
 
     public ScreenRecorder(MediaProjection mp) {
@@ -67,18 +73,15 @@ public class ScreenRecorder extends Thread {
     @Override
     public void run() {
         try {
-            startTime = 0;
-            tryingAgainTime = 0;
-            isSetHeader = false;
             try {
                 prepareEncoder();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
 
-            mRTMPMuxer = new RTMPMuxer();
-            int result = mRTMPMuxer.open(RTMP_URL, mWidth, mHeight);
-            Log.d(TAG, "RTMP_URL open result: " + result);
+            mRtmpSink = new RtmpMuxerSink();
+            mRtmpSink.open(mRtmpUrl, mWidth, mHeight);
+            mSink = new CodecConfigFilter(mRtmpSink);
 
             mVirtualDisplay = mMediaProjection.createVirtualDisplay(TAG + "-display",
                     mWidth, mHeight, mDpi, DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC,
@@ -93,61 +96,8 @@ public class ScreenRecorder extends Thread {
 
     private void recordVirtualDisplay() {
         while (!mQuit.get()) {
-
-            int index = mEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_US);
-
-            if (startTime == 0)
-                startTime = System.currentTimeMillis();
-
-            int timestamp = (int) (System.currentTimeMillis() - startTime);
-            //Log.d(TAG, "dequeue output buffer index=" + index);
-            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                Log.d(TAG, "Format changed " + mEncoder.getOutputFormat());
-            } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                if (tryingAgainTime == 0)
-                    tryingAgainTime = System.currentTimeMillis();
-                //Log.d(TAG, "Contents are not ready, trying again...");
-            } else if (index >= 0) {
-                if (tryingAgainTime > 0) {
-                    long tryAgainAfterTime = System.currentTimeMillis() - tryingAgainTime;
-                    Log.d(TAG, "Tried again after " + tryAgainAfterTime +" ms");
-                    tryingAgainTime = 0;
-                }
-                ByteBuffer encodedData = mEncoder.getOutputBuffer(index);
-                encodedData.position(mBufferInfo.offset);
-                encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
-
-                byte[] bytes = new byte[encodedData.remaining()];
-                encodedData.get(bytes);
-
-                encodeToVideoTrack(index, timestamp, bytes);
-                mEncoder.releaseOutputBuffer(index, false);
-            }
-        }
-    }
-
-    private void encodeToVideoTrack(int index, int timestamp, byte[] bytes) {
-
-
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-            // Pulling codec config data
-            if (!isSetHeader) {
-                writeToMuxer(true, timestamp, bytes);
-                isSetHeader = true;
-            }
-            mBufferInfo.size = 0;
+            mSource.drain(mSink);
         }
-
-        if (mBufferInfo.size > 0) {
-            writeToMuxer(false, timestamp, bytes);
-        }
-    }
-
-    private void writeToMuxer(boolean isHeader, int timestamp, byte[] bytes) {
-        int rtmpConnectionState = mRTMPMuxer != null ? mRTMPMuxer.isConnected() : 0;
-        Log.d(TAG, "RTMP connection state: " + rtmpConnectionState + " timestamp: " + timestamp + " byte[] length: " + bytes.length);
-        int writeResult = mRTMPMuxer.writeVideo(bytes, 0, bytes.length, timestamp);
-        Log.d(TAG, "RTMP write data result: " + writeResult + " is header: " + isHeader);
     }
 
     private void prepareEncoder() throws IOException {
@@ -164,17 +114,20 @@ public class ScreenRecorder extends Thread {
         mSurface = mEncoder.createInputSurface();
         Log.d(TAG, "created input surface: " + mSurface);
         mEncoder.start();
+        mSource = new MediaCodecFrameSource(mEncoder, EncodedFrame.TYPE_VIDEO, new TimestampBase(), TIMEOUT_US);
     }
 
     private void release() {
-        if (mRTMPMuxer != null) {
-            mRTMPMuxer.close();
-            mRTMPMuxer = null;
+        if (mSink != null) {
+            mSink.close();
+            mSink = null;
+            mRtmpSink = null;
         }
         if (mEncoder != null) {
             mEncoder.stop();
             mEncoder.release();
             mEncoder = null;
+            mSource = null;
         }
         if (mVirtualDisplay != null) {
             mVirtualDisplay.release();
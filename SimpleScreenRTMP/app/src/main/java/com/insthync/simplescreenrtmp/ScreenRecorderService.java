@@ -24,14 +24,41 @@ import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.view.Surface;
 
-import net.butterflytv.rtmp_client.RTMPMuxer;
-
+import com.insthync.simplescreenrtmp.core.AsyncFrameSink;
+import com.insthync.simplescreenrtmp.core.BandwidthProbe;
+import com.insthync.simplescreenrtmp.core.BitrateLadder;
+import com.insthync.simplescreenrtmp.core.Clock;
+import com.insthync.simplescreenrtmp.core.CodecConfigFilter;
+import com.insthync.simplescreenrtmp.core.EncodedFrame;
+import com.insthync.simplescreenrtmp.core.EncoderWatchdog;
+import com.insthync.simplescreenrtmp.core.FanOutSink;
+import com.insthync.simplescreenrtmp.core.FrameSink;
+import com.insthync.simplescreenrtmp.core.FrameSpool;
+import com.insthync.simplescreenrtmp.core.KeyFrameAligner;
+import com.insthync.simplescreenrtmp.core.LatencyStamper;
+import com.insthync.simplescreenrtmp.core.Pacer;
+import com.insthync.simplescreenrtmp.core.PauseGate;
+import com.insthync.simplescreenrtmp.core.RtmpPublishSink;
+import com.insthync.simplescreenrtmp.core.SpoolUploader;
+import com.insthync.simplescreenrtmp.core.SpoolingSink;
+import com.insthync.simplescreenrtmp.core.StreamStats;
+import com.insthync.simplescreenrtmp.core.TimestampBase;
+
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 public class ScreenRecorderService extends Service {
     private final String TAG = "ScreenRecorderService";
     public static final String ACTION_STOP = "ACTION_STOP";
+    public static final String ACTION_PAUSE = "ACTION_PAUSE";
+    public static final String ACTION_RESUME = "ACTION_RESUME";
+    // Broadcast by the service once it stopped, whatever stopped it
+    public static final String ACTION_STOPPED = "ACTION_STOPPED";
     // Default Video Record Setting
     public static final int DEFAULT_SCREEN_WIDTH = 640;
     public static final int DEFAULT_SCREEN_HEIGHT = 480;
@@ -54,6 +81,39 @@ public class ScreenRecorderService extends Service {
     private static final int AUDIO_TIMEOUT_US = 10000;
     private static final int AUDIO_RECORD_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int AUDIO_CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_SLICE_MS = 100;
+    // Send Setting
+    private static final int SEND_QUEUE_CAPACITY_BYTES = 512 * 1024;
+    // Default Coalesce Setting, 0 writes every frame on its own through librtmp
+    public static final int DEFAULT_COALESCE_WINDOW_MS = 0;
+    private static final int COALESCE_WINDOW_BYTES = 64 * 1024;
+    // Default Pacing Setting, longest a video burst is spread over, 0 disables pacing
+    public static final int DEFAULT_PACING_WINDOW_MS = 0;
+    // Default Latency Setting, capture time embedded into the video, 0 disables it
+    public static final int DEFAULT_LATENCY_STAMP_INTERVAL_MS = 0;
+
+    // Default Spool Setting, 0 disables the spool
+    public static final int DEFAULT_SPOOL_CAPACITY = 0;
+    public static final String DEFAULT_BACKLOG_STREAM_SUFFIX = "_backlog";
+    // Spool Setting
+    private static final String SPOOL_FILE_NAME = "stream.spool";
+
+    // Simulcast Setting, renditions below the selected one published to their own stream keys.
+    // Each divides the selected size, a smaller picture needs more bits per pixel.
+    private static final int[] SIMULCAST_SIZE_DIVISORS = {2, 4};
+    private static final int[] SIMULCAST_BITRATE_DIVISORS = {2, 8};
+    private static final String[] SIMULCAST_STREAM_SUFFIXES = {"_mid", "_low"};
+    // Key frames are requested on all renditions together, this is only a fallback
+    private static final int SIMULCAST_IFRAME_INTERVAL = 10;
+
+    // Bandwidth Probe Setting, the tiers a probed session starts from
+    private static final int[][] BANDWIDTH_PROBE_LADDER = {
+            // width, height, fps, bitrate
+            {320, 240, 15, 1024 * 250},
+            {640, 480, 15, 1024 * 500},
+            {960, 540, 24, 1024 * 1000},
+            {1280, 720, 30, 1024 * 2000},
+    };
 
     public static final String EXTRA_RESULT_CODE = "result_code";
     public static final String EXTRA_RESULT_DATA = "result_data";
@@ -68,6 +128,19 @@ public class ScreenRecorderService extends Service {
     public static final String EXTRA_AUDIO_SAMPLE_RATE = "audio_sample_rate";
     public static final String EXTRA_AUDIO_BITRATE = "audio_bitrate";
 
+    public static final String EXTRA_SPOOL_CAPACITY = "spool_capacity";
+    public static final String EXTRA_BACKLOG_RTMP_ADDRESS = "backlog_rtmp_address";
+
+    public static final String EXTRA_SIMULCAST = "simulcast";
+
+    public static final String EXTRA_COALESCE_WINDOW_MS = "coalesce_window_ms";
+    public static final String EXTRA_AGGREGATE_MESSAGES = "aggregate_messages";
+    public static final String EXTRA_PACING_WINDOW_MS = "pacing_window_ms";
+
+    public static final String EXTRA_LATENCY_STAMP_INTERVAL_MS = "latency_stamp_interval_ms";
+
+    public static final String EXTRA_BANDWIDTH_PROBE = "bandwidth_probe";
+
     private final int NT_ID_CASTING = 0;
 
     private MediaProjectionManager mMediaProjectionManager;
@@ -80,32 +153,60 @@ public class ScreenRecorderService extends Service {
     private int mSelectedVideoHeight;
     private int mSelectedVideoDpi;
     private int mSelectedVideoBitrate;
+    private int mSelectedVideoFps;
 
     private int mSelectedAudioRecordSource;
     private int mSelectedAudioSampleRate;
     private int mSelectedAudioBitrate;
 
+    private int mSelectedSpoolCapacity;
+    private String mBacklogRtmpAddress;
+
+    private boolean mIsSimulcast;
+
+    private int mSelectedCoalesceWindowMs;
+    private boolean mUseAggregateMessages;
+    private int mSelectedPacingWindowMs;
+
+    private int mSelectedLatencyStampIntervalMs;
+
+    private boolean mIsBandwidthProbe;
+    private boolean mIsBandwidthProbed;
+    // Asked for explicitly, the probe must not change them
+    private boolean mIsVideoSizeRequested;
+    private boolean mIsVideoBitrateRequested;
+    private BandwidthProbe.Result mBandwidthProbeResult;
+
     private MediaProjection mMediaProjection;
     private VirtualDisplay mVirtualDisplay;
     private Surface mInputSurface;
     private MediaCodec mVideoEncoder;
-    private MediaCodec.BufferInfo mVideoBufferInfo;
+    private MediaCodecFrameSource mVideoSource;
 
     private AudioRecord mAudioRecord;
     private byte[] mAudioBuffer;
     private MediaCodec mAudioEncoder;
-    private MediaCodec.BufferInfo mAudioBufferInfo;
-
-    private RTMPMuxer mRTMPMuxer;
-    private long mStartTime;
-    private long mVideoTryingAgainTime;
-    private boolean mIsSetVideoHeader;
-    private boolean mIsSetAudioHeader;
+    private MediaCodecFrameSource mAudioSource;
+
+    private TimestampBase mTimestampBase;
+    private StreamStats mStreamStats;
+    private EncoderWatchdog mWatchdog;
+    private FrameSink mRtmpSink;
+    private CodecConfigFilter mConfigFilter;
+    private FrameSink mSink;
+    private FrameSink mAudioSink;
+    private PauseGate mPauseGate;
+    private boolean mIsPaused;
+
+    private KeyFrameAligner mKeyFrameAligner;
+    private List<SimulcastRendition> mSimulcastRenditions = new ArrayList<SimulcastRendition>();
+    private FanOutSink mSimulcastAudioSink;
 
     private IntentFilter mBroadcastIntentFilter;
     private Handler mDrainVideoEncoderHandler = new Handler();
     private Handler mDrainAudioEncoderHandler = new Handler();
     private Handler mRecordAudioHandler = new Handler();
+    private Handler mBandwidthProbeHandler = new Handler();
 
     private Runnable mDrainVideoEncoderRunnable = new Runnable() {
         @Override
@@ -139,6 +240,10 @@ public class ScreenRecorderService extends Service {
             if (ACTION_STOP.equals(action)) {
                 stopScreenCapture();
                 stopSelf();
+            } else if (ACTION_PAUSE.equals(action)) {
+                pauseRecording();
+            } else if (ACTION_RESUME.equals(action)) {
+                resumeRecording();
             }
         }
     };
@@ -149,6 +254,8 @@ public class ScreenRecorderService extends Service {
         mMediaProjectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
         mBroadcastIntentFilter = new IntentFilter();
         mBroadcastIntentFilter.addAction(ACTION_STOP);
+        mBroadcastIntentFilter.addAction(ACTION_PAUSE);
+        mBroadcastIntentFilter.addAction(ACTION_RESUME);
         registerReceiver(mBroadcastReceiver, mBroadcastIntentFilter);
     }
 
@@ -158,6 +265,7 @@ public class ScreenRecorderService extends Service {
         Log.d(TAG, "Destroy service");
         stopScreenCapture();
         unregisterReceiver(mBroadcastReceiver);
+        sendBroadcast(new Intent(ACTION_STOPPED));
     }
 
     @Override
@@ -182,11 +290,29 @@ public class ScreenRecorderService extends Service {
         mSelectedVideoHeight = intent.getIntExtra(EXTRA_SCREEN_HEIGHT, DEFAULT_SCREEN_HEIGHT);
         mSelectedVideoDpi = intent.getIntExtra(EXTRA_SCREEN_DPI, DEFAULT_SCREEN_DPI);
         mSelectedVideoBitrate = intent.getIntExtra(EXTRA_VIDEO_BITRATE, DEFAULT_VIDEO_BITRATE);
+        mSelectedVideoFps = DEFAULT_VIDEO_FPS;
 
         mSelectedAudioRecordSource = intent.getIntExtra(EXTRA_AUDIO_RECORDER_SOURCE, DEFAULT_AUDIO_RECORDER_SOURCE);
         mSelectedAudioSampleRate = intent.getIntExtra(EXTRA_AUDIO_SAMPLE_RATE, DEFAULT_AUDIO_SAMPLE_RATE);
         mSelectedAudioBitrate = intent.getIntExtra(EXTRA_AUDIO_BITRATE, DEFAULT_AUDIO_BITRATE);
 
+        mSelectedSpoolCapacity = intent.getIntExtra(EXTRA_SPOOL_CAPACITY, DEFAULT_SPOOL_CAPACITY);
+        mBacklogRtmpAddress = intent.getStringExtra(EXTRA_BACKLOG_RTMP_ADDRESS);
+        if (mBacklogRtmpAddress == null)
+            mBacklogRtmpAddress = mRtmpAddresss + DEFAULT_BACKLOG_STREAM_SUFFIX;
+
+        mIsSimulcast = intent.getBooleanExtra(EXTRA_SIMULCAST, false);
+
+        mSelectedCoalesceWindowMs = intent.getIntExtra(EXTRA_COALESCE_WINDOW_MS, DEFAULT_COALESCE_WINDOW_MS);
+        mUseAggregateMessages = intent.getBooleanExtra(EXTRA_AGGREGATE_MESSAGES, false);
+        mSelectedPacingWindowMs = intent.getIntExtra(EXTRA_PACING_WINDOW_MS, DEFAULT_PACING_WINDOW_MS);
+
+        mSelectedLatencyStampIntervalMs = intent.getIntExtra(EXTRA_LATENCY_STAMP_INTERVAL_MS, DEFAULT_LATENCY_STAMP_INTERVAL_MS);
+
+        mIsBandwidthProbe = intent.getBooleanExtra(EXTRA_BANDWIDTH_PROBE, false);
+        mIsVideoSizeRequested = intent.hasExtra(EXTRA_SCREEN_WIDTH) || intent.hasExtra(EXTRA_SCREEN_HEIGHT);
+        mIsVideoBitrateRequested = intent.hasExtra(EXTRA_VIDEO_BITRATE);
+
         if (!startScreenCapture()) {
             Log.e(TAG, "Failed to start capture screen");
             return START_NOT_STICKY;
@@ -221,12 +347,6 @@ public class ScreenRecorderService extends Service {
         notificationManager.cancel(NT_ID_CASTING);
     }
 
-    private int getTimestamp() {
-        if (mStartTime == 0)
-            mStartTime = mVideoBufferInfo.presentationTimeUs / 1000;
-        return (int) (mVideoBufferInfo.presentationTimeUs / 1000 - mStartTime);
-    }
-
     private boolean startScreenCapture() {
         Log.d(TAG, "mResultCode: " + mResultCode + ", mResultData: " + mResultData);
         if (mResultCode != 0 && mResultData != null) {
@@ -244,24 +364,61 @@ public class ScreenRecorderService extends Service {
 
     private void startRecording() {
         Log.d(TAG, "startRecording");
+        if (mIsBandwidthProbe && !mIsBandwidthProbed) {
+            startBandwidthProbe();
+            return;
+        }
 
-        mStartTime = 0;
-        mVideoTryingAgainTime = 0;
-        mIsSetVideoHeader = false;
+        mTimestampBase = new TimestampBase();
+        mStreamStats = new StreamStats();
+        if (mBandwidthProbeResult != null)
+            mStreamStats.onBandwidthProbe(mBandwidthProbeResult);
+        mWatchdog = new EncoderWatchdog(Clock.SYSTEM, mStreamStats);
+        if (mIsSimulcast)
+            mKeyFrameAligner = new KeyFrameAligner(Clock.SYSTEM, mStreamStats, VIDEO_IFRAME_INTERVAL * 1000, 1 + SIMULCAST_SIZE_DIVISORS.length);
 
         prepareVideoEncoder();
         prepareAudioEncoder();
 
-        mRTMPMuxer = new RTMPMuxer();
-        int result = mRTMPMuxer.open(mRtmpAddresss, mSelectedVideoWidth, mSelectedVideoHeight);
-        Log.d(TAG, "RTMP_URL open result: " + result);
+        if (mSelectedCoalesceWindowMs > 0 || mSelectedPacingWindowMs > 0) {
+            // librtmp writes each frame on its own, batching and pacing need the Java RTMP client
+            RtmpPublishSink rtmpPublishSink = new RtmpPublishSink(mRtmpAddresss, Clock.SYSTEM, mStreamStats, mSelectedCoalesceWindowMs,
+                    COALESCE_WINDOW_BYTES, mUseAggregateMessages);
+            if (mSelectedPacingWindowMs > 0)
+                rtmpPublishSink.setPacer(new Pacer(Clock.SYSTEM, mSelectedVideoBitrate + mSelectedAudioBitrate,
+                        Pacer.DEFAULT_PACING_FACTOR, mSelectedPacingWindowMs));
+            mRtmpSink = rtmpPublishSink;
+        } else {
+            RtmpMuxerSink rtmpMuxerSink = new RtmpMuxerSink();
+            rtmpMuxerSink.open(mRtmpAddresss, mSelectedVideoWidth, mSelectedVideoHeight);
+            mRtmpSink = rtmpMuxerSink;
+        }
+        FrameSpool spool = mSelectedSpoolCapacity > 0 ? openSpool() : null;
+        // With a spool, frames the sender fails to send are spooled rather than dropped
+        FrameSink sendSink = new AsyncFrameSink(mRtmpSink, SEND_QUEUE_CAPACITY_BYTES, mStreamStats, spool != null);
+        if (spool != null)
+            sendSink = createSpoolingSink(sendSink, spool);
+        mConfigFilter = new CodecConfigFilter(sendSink);
+        mSink = mConfigFilter;
+        if (mKeyFrameAligner != null)
+            mSink = mKeyFrameAligner.monitor(0, mSink);
+        mPauseGate = new PauseGate(mSink, Clock.SYSTEM, mStreamStats);
+        mSink = mPauseGate;
+        if (mSelectedLatencyStampIntervalMs > 0)
+            mSink = new LatencyStamper(mSink, mTimestampBase, mSelectedLatencyStampIntervalMs);
+        mIsPaused = false;
+        mAudioSink = mSink;
 
         // Start the video input.
         mVirtualDisplay = mMediaProjection.createVirtualDisplay("Recording Display", mSelectedVideoWidth,
                 mSelectedVideoHeight, mSelectedVideoDpi, 0 /* flags */, mInputSurface,
                 null /* callback */, null /* handler */);
+        mWatchdog.onInputAttached();
+
+        if (mIsSimulcast)
+            startSimulcastRenditions();
 
-        int audioRecoderSliceSize = mSelectedAudioSampleRate / 10;
+        int audioRecoderSliceSize = mSelectedAudioSampleRate * AUDIO_SLICE_MS / 1000;
         int minBufferSize = AudioRecord.getMinBufferSize(mSelectedAudioSampleRate, AUDIO_CHANNEL_CONFIG, AUDIO_RECORD_FORMAT);
         mAudioRecord = new AudioRecord(mSelectedAudioRecordSource, mSelectedAudioSampleRate, AUDIO_CHANNEL_CONFIG, AUDIO_RECORD_FORMAT, minBufferSize * 5);
         mAudioBuffer = new byte[audioRecoderSliceSize * 2];
@@ -279,19 +436,123 @@ public class ScreenRecorderService extends Service {
         }
     }
 
-    private void prepareVideoEncoder() {
-        mVideoBufferInfo = new MediaCodec.BufferInfo();
-        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, mSelectedVideoWidth, mSelectedVideoHeight);
-        int frameRate = DEFAULT_VIDEO_FPS;
+    /**
+     * Measure the uplink off the main thread, recording starts afterwards with the tier it affords.
+     */
+    private void startBandwidthProbe() {
+        final String rtmpAddress = mRtmpAddresss;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BandwidthProbe.Result result = null;
+                try {
+                    result = new BandwidthProbe(rtmpAddress, Clock.SYSTEM).run();
+                } catch (IOException e) {
+                    Log.w(TAG, "Bandwidth probe failed, e: " + e);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Bandwidth probe failed, e: " + e);
+                }
+                final BandwidthProbe.Result probeResult = result;
+                mBandwidthProbeHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBandwidthProbed(probeResult);
+                    }
+                });
+            }
+        }, "BandwidthProbe").start();
+    }
+
+    private void onBandwidthProbed(BandwidthProbe.Result result) {
+        // Stopped while probing
+        if (mMediaProjection == null)
+            return;
+        mIsBandwidthProbed = true;
+        mBandwidthProbeResult = result;
+        if (result != null) {
+            BitrateLadder.Tier tier = new BitrateLadder(BANDWIDTH_PROBE_LADDER).select(result.throughputBps, BitrateLadder.DEFAULT_USABLE_SHARE);
+            Log.d(TAG, "Bandwidth probe: " + result + ", suggests " + tier);
+            if (!mIsVideoSizeRequested) {
+                mSelectedVideoWidth = tier.width;
+                mSelectedVideoHeight = tier.height;
+                mSelectedVideoFps = tier.fps;
+            }
+            if (!mIsVideoBitrateRequested)
+                mSelectedVideoBitrate = tier.bitrate;
+        }
+        startRecording();
+    }
+
+    private FrameSpool openSpool() {
+        FrameSpool spool;
+        try {
+            spool = new FrameSpool(new File(getFilesDir(), SPOOL_FILE_NAME), mSelectedSpoolCapacity, mStreamStats);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open spool, e: " + e);
+            return null;
+        }
+        Log.d(TAG, "Spool opened with " + spool.size() + " frames of previous sessions");
+        return spool;
+    }
+
+    /**
+     * Frames which can not be sent live go to a spool file, the backlog is published to its own
+     * stream once the connection is back. A backlog left by a previous session is sent as well.
+     */
+    private FrameSink createSpoolingSink(FrameSink sendSink, FrameSpool spool) {
+        final String backlogAddress = mBacklogRtmpAddress;
+        final int width = mSelectedVideoWidth;
+        final int height = mSelectedVideoHeight;
+        SpoolUploader uploader = new SpoolUploader(spool, new SpoolUploader.SinkFactory() {
+            @Override
+            public FrameSink open() {
+                RtmpMuxerSink sink = new RtmpMuxerSink();
+                if (sink.open(backlogAddress, width, height) < 0) {
+                    sink.close();
+                    return null;
+                }
+                return sink;
+            }
+        }, mStreamStats);
+        return new SpoolingSink(sendSink, spool, uploader);
+    }
+
+    private void startSimulcastRenditions() {
+        FanOutSink audioSink = new FanOutSink(mSink);
+        for (int i = 0; i < SIMULCAST_SIZE_DIVISORS.length; i++) {
+            // Encoders want sizes in whole macroblocks
+            int width = Math.max(16, mSelectedVideoWidth / SIMULCAST_SIZE_DIVISORS[i] & ~15);
+            int height = Math.max(16, mSelectedVideoHeight / SIMULCAST_SIZE_DIVISORS[i] & ~15);
+            SimulcastRendition simulcastRendition = new SimulcastRendition(i + 1, width, height,
+                    mRtmpAddresss + SIMULCAST_STREAM_SUFFIXES[i]);
+            MediaFormat format = createVideoFormat(width, height, mSelectedVideoBitrate / SIMULCAST_BITRATE_DIVISORS[i]);
+            if (simulcastRendition.start(format, mMediaProjection, mSelectedVideoDpi, mTimestampBase,
+                    mKeyFrameAligner, VIDEO_TIMEOUT_US, SEND_QUEUE_CAPACITY_BYTES)) {
+                mSimulcastRenditions.add(simulcastRendition);
+                audioSink.addSink(simulcastRendition.getSink());
+            }
+        }
+        mSimulcastAudioSink = audioSink;
+        mAudioSink = audioSink;
+    }
+
+    private MediaFormat createVideoFormat(int width, int height, int bitrate) {
+        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, width, height);
+        int frameRate = mSelectedVideoFps;
 
         // Set some required properties. The media codec may fail if these aren't defined.
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, mSelectedVideoBitrate);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
         format.setInteger(MediaFormat.KEY_CAPTURE_RATE, frameRate);
         format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, 1);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, VIDEO_IFRAME_INTERVAL);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mIsSimulcast ? SIMULCAST_IFRAME_INTERVAL : VIDEO_IFRAME_INTERVAL);
         format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, 1000000 / frameRate);
+        return format;
+    }
+
+    private void prepareVideoEncoder() {
+        MediaFormat format = createVideoFormat(mSelectedVideoWidth, mSelectedVideoHeight, mSelectedVideoBitrate);
 
         // Create a MediaCodec encoder and configure it. Get a Surface we can use for recording into.
         try {
@@ -299,6 +560,7 @@ public class ScreenRecorderService extends Service {
             mVideoEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             mInputSurface = mVideoEncoder.createInputSurface();
             mVideoEncoder.start();
+            mVideoSource = new MediaCodecFrameSource(mVideoEncoder, EncodedFrame.TYPE_VIDEO, mTimestampBase, VIDEO_TIMEOUT_US);
         } catch (IOException e) {
             Log.e(TAG, "Failed to initial video encoder, e: " + e);
             releaseEncoders();
@@ -306,8 +568,6 @@ public class ScreenRecorderService extends Service {
     }
 
     private void prepareAudioEncoder() {
-        mAudioBufferInfo = new MediaCodec.BufferInfo();
-
         MediaFormat format = MediaFormat.createAudioFormat(AUDIO_MIME_TYPE, mSelectedAudioSampleRate, AUDIO_CHANNEL_COUNT);
         format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
         format.setInteger(MediaFormat.KEY_BIT_RATE, mSelectedAudioBitrate);
@@ -317,6 +577,7 @@ public class ScreenRecorderService extends Service {
             mAudioEncoder = MediaCodec.createEncoderByType(AUDIO_MIME_TYPE);
             mAudioEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             mAudioEncoder.start();
+            mAudioSource = new MediaCodecFrameSource(mAudioEncoder, EncodedFrame.TYPE_AUDIO, mTimestampBase, AUDIO_TIMEOUT_US);
         } catch (IOException e) {
             Log.e(TAG, "Failed to initial audio encoder, e: " + e);
             releaseEncoders();
@@ -327,67 +588,62 @@ public class ScreenRecorderService extends Service {
         mRecordAudioHandler.removeCallbacks(mRecordAudioRunnable);
 
         if (mAudioEncoder != null) {
-            int timestamp = getTimestamp();
-            // Read audio data from recorder then write to encoder
-            int size = mAudioRecord.read(mAudioBuffer, 0, mAudioBuffer.length);
+            // Same monotonic clock as the frames of the virtual display, so both tracks share one time base
+            long presentationTimeUs = System.nanoTime() / 1000;
+            int size;
+            if (mIsPaused) {
+                // The microphone is off, silence keeps the audio track going
+                Arrays.fill(mAudioBuffer, (byte) 0);
+                size = mAudioBuffer.length;
+            } else {
+                // Read audio data from recorder then write to encoder
+                size = mAudioRecord.read(mAudioBuffer, 0, mAudioBuffer.length);
+            }
             if (size > 0) {
                 int index = mAudioEncoder.dequeueInputBuffer(-1);
                 if (index >= 0) {
                     ByteBuffer inputBuffer = mAudioEncoder.getInputBuffer(index);
                     inputBuffer.position(0);
                     inputBuffer.put(mAudioBuffer, 0, mAudioBuffer.length);
-                    mAudioEncoder.queueInputBuffer(index, 0, mAudioBuffer.length, timestamp * 1000, 0);
+                    mAudioEncoder.queueInputBuffer(index, 0, mAudioBuffer.length, presentationTimeUs, 0);
                 }
             }
         }
 
-        mRecordAudioHandler.post(mRecordAudioRunnable);
+        if (mIsPaused)
+            mRecordAudioHandler.postDelayed(mRecordAudioRunnable, AUDIO_SLICE_MS);
+        else
+            mRecordAudioHandler.post(mRecordAudioRunnable);
         return true;
     }
 
     private boolean drainVideoEncoder() {
         mDrainVideoEncoderHandler.removeCallbacks(mDrainVideoEncoderRunnable);
 
-        if (mVideoEncoder != null) {
-            while (true) {
-                int timestamp = getTimestamp();
-                int index = mVideoEncoder.dequeueOutputBuffer(mVideoBufferInfo, VIDEO_TIMEOUT_US);
-
-                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    Log.d(TAG, "Video Format changed " + mVideoEncoder.getOutputFormat());
-                } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    if (mVideoTryingAgainTime == 0)
-                        mVideoTryingAgainTime = System.currentTimeMillis();
-                    //Log.d(TAG, "Contents are not ready, trying again...");
-                    break;
-                } else if (index >= 0) {
-                    if (mVideoTryingAgainTime > 0) {
-                        long tryAgainAfterTime = System.currentTimeMillis() - mVideoTryingAgainTime;
-                        Log.d(TAG, "Tried again after " + tryAgainAfterTime + " ms");
-                        mVideoTryingAgainTime = 0;
-                    }
-                    ByteBuffer encodedData = mVideoEncoder.getOutputBuffer(index);
-                    encodedData.position(mVideoBufferInfo.offset);
-                    encodedData.limit(mVideoBufferInfo.offset + mVideoBufferInfo.size);
-
-                    byte[] bytes = new byte[encodedData.remaining()];
-                    encodedData.get(bytes);
-
-                    if ((mVideoBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // Pulling codec config data
-                        if (!mIsSetVideoHeader) {
-                            writeVideoMuxer(true, timestamp, bytes);
-                            mIsSetVideoHeader = true;
-                        }
-                        mVideoBufferInfo.size = 0;
-                    }
-
-                    if (mVideoBufferInfo.size > 0) {
-                        writeVideoMuxer(false, timestamp, bytes);
-                    }
-
-                    mVideoEncoder.releaseOutputBuffer(index, false);
+        if (mVideoSource != null) {
+            try {
+                if (mVideoSource.drain(mSink) > 0)
+                    mWatchdog.onEncoderOutput();
+            } catch (MediaCodec.CodecException e) {
+                Log.e(TAG, "Video encoder error, e: " + e + ", diagnostic: " + e.getDiagnosticInfo());
+                mWatchdog.onCodecError();
+            }
+            drainSimulcastRenditions();
+            if (mKeyFrameAligner != null)
+                requestAlignedKeyFrames(mKeyFrameAligner.takeKeyFrameRequests());
+
+            int action = mWatchdog.check();
+            if (action == EncoderWatchdog.ACTION_RECOVER) {
+                if (!recoverVideoEncoder()) {
+                    stopScreenCapture();
+                    stopSelf();
+                    return false;
                 }
+            } else if (action == EncoderWatchdog.ACTION_GIVE_UP) {
+                Log.e(TAG, "Video encoder keeps stalling, stop recording");
+                stopScreenCapture();
+                stopSelf();
+                return false;
             }
         }
 
@@ -395,60 +651,104 @@ public class ScreenRecorderService extends Service {
         return true;
     }
 
-    private boolean drainAudioEncoder() {
-        mDrainAudioEncoderHandler.removeCallbacks(mDrainAudioEncoderRunnable);
+    /**
+     * Rebuild a stalled or failed video encoder in place. The virtual display and the RTMP
+     * connection are kept, the new encoder starts with a key frame and its own headers.
+     */
+    private boolean recoverVideoEncoder() {
+        Log.w(TAG, "Recovering video encoder, no output for " + mWatchdog.getOutputIdleMillis() + " ms");
+        if (mVirtualDisplay != null)
+            mVirtualDisplay.setSurface(null);
+        releaseVideoEncoder();
 
-        if (mAudioEncoder != null) {
-            while (true) {
-                int timestamp = getTimestamp();
-                int index = mAudioEncoder.dequeueOutputBuffer(mAudioBufferInfo, AUDIO_TIMEOUT_US);
-
-                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    Log.d(TAG, "Audio Format changed " + mAudioEncoder.getOutputFormat());
-                } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    break;
-                } else if (index >= 0) {
-                    ByteBuffer encodedData = mAudioEncoder.getOutputBuffer(index);
-                    encodedData.position(mAudioBufferInfo.offset);
-                    encodedData.limit(mAudioBufferInfo.offset + mAudioBufferInfo.size);
-
-                    byte[] bytes = new byte[encodedData.remaining()];
-                    encodedData.get(bytes);
-
-                    if ((mAudioBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // Pulling codec config data
-                        if (!mIsSetAudioHeader) {
-                            writeAudioMuxer(true, timestamp, bytes);
-                            mIsSetAudioHeader = true;
-                        }
-                        mAudioBufferInfo.size = 0;
-                    }
+        prepareVideoEncoder();
+        if (mVideoEncoder == null) {
+            Log.e(TAG, "Failed to recover video encoder");
+            return false;
+        }
+        if (!mIsPaused)
+            mVirtualDisplay.setSurface(mInputSurface);
+        mVideoSource.requestKeyFrame();
+        mConfigFilter.reset(EncodedFrame.TYPE_VIDEO);
+        mWatchdog.onRecovered();
+        Log.d(TAG, "Video encoder recovered, stream stats: " + mStreamStats);
+        return true;
+    }
 
-                    if (mAudioBufferInfo.size > 0) {
-                        writeAudioMuxer(false, timestamp, bytes);
-                    }
+    /**
+     * Detach the displays and mute the microphone. Encoders, projection and connections stay up,
+     * the gate keeps the session alive with audio and sparse key frames.
+     */
+    private void pauseRecording() {
+        if (mPauseGate == null || mIsPaused)
+            return;
+        Log.d(TAG, "pauseRecording");
+        mIsPaused = true;
+        mPauseGate.pause();
+        if (mVirtualDisplay != null)
+            mVirtualDisplay.setSurface(null);
+        mWatchdog.onInputDetached();
+        for (SimulcastRendition simulcastRendition : mSimulcastRenditions)
+            simulcastRendition.pause();
+        if (mAudioRecord != null && mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
+            mAudioRecord.stop();
+    }
 
-                    mAudioEncoder.releaseOutputBuffer(index, false);
-                }
-            }
+    /**
+     * Reattach the displays and ask every encoder for a key frame, the stream continues with it.
+     */
+    private void resumeRecording() {
+        if (mPauseGate == null || !mIsPaused)
+            return;
+        Log.d(TAG, "resumeRecording, stream stats: " + mStreamStats);
+        mIsPaused = false;
+        if (mAudioRecord != null && mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED && mAudioEncoder != null)
+            mAudioRecord.startRecording();
+        if (mVirtualDisplay != null && mInputSurface != null) {
+            mVirtualDisplay.setSurface(mInputSurface);
+            mWatchdog.onInputAttached();
         }
+        for (SimulcastRendition simulcastRendition : mSimulcastRenditions)
+            simulcastRendition.resume();
+        mPauseGate.resume();
+        if (mVideoSource != null)
+            mVideoSource.requestKeyFrame();
+    }
 
-        mDrainAudioEncoderHandler.post(mDrainAudioEncoderRunnable);
-        return true;
+    /**
+     * A rendition whose encoder failed is dropped, the selected stream carries on without it.
+     */
+    private void drainSimulcastRenditions() {
+        Iterator<SimulcastRendition> iterator = mSimulcastRenditions.iterator();
+        while (iterator.hasNext()) {
+            SimulcastRendition simulcastRendition = iterator.next();
+            if (simulcastRendition.drain())
+                continue;
+            mSimulcastAudioSink.removeSink(simulcastRendition.getSink());
+            simulcastRendition.release();
+            iterator.remove();
+        }
     }
 
-    private void writeVideoMuxer(boolean isHeader, int timestamp, byte[] bytes) {
-        int rtmpConnectionState = mRTMPMuxer != null ? mRTMPMuxer.isConnected() : 0;
-        Log.d(TAG, "RTMP connection state: " + rtmpConnectionState + " timestamp: " + timestamp + " byte[] length: " + bytes.length);
-        int writeResult = mRTMPMuxer.writeVideo(bytes, 0, bytes.length, timestamp);
-        Log.d(TAG, "RTMP write video result: " + writeResult + " is header: " + isHeader);
+    private void requestAlignedKeyFrames(int requests) {
+        if (requests == 0)
+            return;
+        if ((requests & 1) != 0)
+            mVideoSource.requestKeyFrame();
+        for (SimulcastRendition simulcastRendition : mSimulcastRenditions) {
+            if ((requests & 1 << simulcastRendition.getIndex()) != 0)
+                simulcastRendition.requestKeyFrame();
+        }
     }
 
-    private void writeAudioMuxer(boolean isHeader, int timestamp, byte[] bytes) {
-        int rtmpConnectionState = mRTMPMuxer != null ? mRTMPMuxer.isConnected() : 0;
-        Log.d(TAG, "RTMP connection state: " + rtmpConnectionState + " timestamp: " + timestamp + " byte[] length: " + bytes.length);
-        int writeResult = mRTMPMuxer.writeAudio(bytes, 0, bytes.length, timestamp);
-        Log.d(TAG, "RTMP write audio result: " + writeResult + " is header: " + isHeader);
+    private boolean drainAudioEncoder() {
+        mDrainAudioEncoderHandler.removeCallbacks(mDrainAudioEncoderRunnable);
+
+        if (mAudioSource != null)
+            mAudioSource.drain(mAudioSink);
+
+        mDrainAudioEncoderHandler.post(mDrainAudioEncoderRunnable);
+        return true;
     }
 
     private void stopScreenCapture() {
@@ -461,23 +761,26 @@ public class ScreenRecorderService extends Service {
         mDrainAudioEncoderHandler.removeCallbacks(mDrainAudioEncoderRunnable);
         mRecordAudioHandler.removeCallbacks(mRecordAudioRunnable);
 
-        if (mRTMPMuxer != null) {
-            mRTMPMuxer.close();
-            mRTMPMuxer = null;
-        }
-        if (mVideoEncoder != null) {
-            mVideoEncoder.stop();
-            mVideoEncoder.release();
-            mVideoEncoder = null;
+        if (mSink != null) {
+            mSink.close();
+            mSink = null;
+            mRtmpSink = null;
+            mConfigFilter = null;
+            mAudioSink = null;
+            mPauseGate = null;
+            Log.d(TAG, "Stream stats: " + mStreamStats);
         }
+        for (SimulcastRendition simulcastRendition : mSimulcastRenditions)
+            simulcastRendition.release();
+        mSimulcastRenditions.clear();
+        mSimulcastAudioSink = null;
+        mKeyFrameAligner = null;
+        releaseVideoEncoder();
         if (mAudioEncoder != null) {
             mAudioEncoder.stop();
             mAudioEncoder.release();
             mAudioEncoder = null;
-        }
-        if (mInputSurface != null) {
-            mInputSurface.release();
-            mInputSurface = null;
+            mAudioSource = null;
         }
         if (mMediaProjection != null) {
             mMediaProjection.stop();
@@ -492,6 +795,25 @@ public class ScreenRecorderService extends Service {
             mAudioRecord.release();
             mAudioRecord = null;
         }
-        mVideoBufferInfo = null;
+        mIsBandwidthProbed = false;
+        mBandwidthProbeResult = null;
+    }
+
+    private void releaseVideoEncoder() {
+        if (mVideoEncoder != null) {
+            try {
+                mVideoEncoder.stop();
+            } catch (IllegalStateException e) {
+                // A failed codec can not be stopped, it can still be released
+                Log.w(TAG, "Failed to stop video encoder, e: " + e);
+            }
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+            mVideoSource = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.insthync.simplescreenrtmp;
+
+import android.hardware.display.VirtualDisplay;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.projection.MediaProjection;
+import android.util.Log;
+import android.view.Surface;
+
+import com.insthync.simplescreenrtmp.core.AsyncFrameSink;
+import com.insthync.simplescreenrtmp.core.Clock;
+import com.insthync.simplescreenrtmp.core.CodecConfigFilter;
+import com.insthync.simplescreenrtmp.core.EncodedFrame;
+import com.insthync.simplescreenrtmp.core.FrameSink;
+import com.insthync.simplescreenrtmp.core.KeyFrameAligner;
+import com.insthync.simplescreenrtmp.core.PauseGate;
+import com.insthync.simplescreenrtmp.core.StreamStats;
+import com.insthync.simplescreenrtmp.core.TimestampBase;
+
+import java.io.IOException;
+
+/**
+ * An extra resolution of the captured screen, with its own virtual display, encoder and stream.
+ */
+public class SimulcastRendition {
+    private static final String TAG = "SimulcastRendition";
+
+    private final int mIndex;
+    private final int mWidth;
+    private final int mHeight;
+    private final String mRtmpAddress;
+    private final StreamStats mStreamStats = new StreamStats();
+
+    private MediaCodec mEncoder;
+    private Surface mInputSurface;
+    private VirtualDisplay mVirtualDisplay;
+    private MediaCodecFrameSource mSource;
+    private PauseGate mPauseGate;
+    private FrameSink mSink;
+
+    /**
+     * @param index position of this rendition in the {@link KeyFrameAligner}
+     */
+    public SimulcastRendition(int index, int width, int height, String rtmpAddress) {
+        mIndex = index;
+        mWidth = width;
+        mHeight = height;
+        mRtmpAddress = rtmpAddress;
+    }
+
+    public boolean start(MediaFormat format, MediaProjection mediaProjection, int dpi, TimestampBase timestampBase,
+                         KeyFrameAligner keyFrameAligner, long timeoutUs, int sendQueueCapacityBytes) {
+        try {
+            mEncoder = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mInputSurface = mEncoder.createInputSurface();
+            mEncoder.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to initial encoder of " + mRtmpAddress + ", e: " + e);
+            release();
+            return false;
+        }
+        mSource = new MediaCodecFrameSource(mEncoder, EncodedFrame.TYPE_VIDEO, timestampBase, timeoutUs);
+
+        RtmpMuxerSink rtmpSink = new RtmpMuxerSink();
+        rtmpSink.open(mRtmpAddress, mWidth, mHeight);
+        FrameSink sink = keyFrameAligner.monitor(mIndex, new CodecConfigFilter(new AsyncFrameSink(rtmpSink, sendQueueCapacityBytes, mStreamStats)));
+        mPauseGate = new PauseGate(sink, Clock.SYSTEM, mStreamStats);
+        mSink = mPauseGate;
+
+        mVirtualDisplay = mediaProjection.createVirtualDisplay("Recording Display " + mWidth + "x" + mHeight, mWidth,
+                mHeight, dpi, 0 /* flags */, mInputSurface,
+                null /* callback */, null /* handler */);
+        Log.d(TAG, "Started rendition " + mWidth + "x" + mHeight + " to " + mRtmpAddress);
+        return true;
+    }
+
+    /**
+     * @return false if the encoder failed, the rendition has to be released then
+     */
+    public boolean drain() {
+        if (mSource == null)
+            return true;
+        try {
+            mSource.drain(mSink);
+            return true;
+        } catch (MediaCodec.CodecException e) {
+            Log.e(TAG, "Encoder error of " + mRtmpAddress + ", e: " + e);
+            return false;
+        }
+    }
+
+    public void pause() {
+        if (mPauseGate == null)
+            return;
+        mPauseGate.pause();
+        mVirtualDisplay.setSurface(null);
+    }
+
+    /**
+     * Reattach the display, video continues with the next key frame.
+     */
+    public void resume() {
+        if (mPauseGate == null)
+            return;
+        mVirtualDisplay.setSurface(mInputSurface);
+        mPauseGate.resume();
+        requestKeyFrame();
+    }
+
+    /**
+     * @return position of this rendition in the {@link KeyFrameAligner}
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public void requestKeyFrame() {
+        if (mSource != null)
+            mSource.requestKeyFrame();
+    }
+
+    /**
+     * @return sink of this rendition's stream, the shared audio track is written here too
+     */
+    public FrameSink getSink() {
+        return mSink;
+    }
+
+    public void release() {
+        if (mSink != null) {
+            mSink.close();
+            mSink = null;
+            mPauseGate = null;
+            Log.d(TAG, "Stream stats of " + mRtmpAddress + ": " + mStreamStats);
+        }
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        if (mEncoder != null) {
+            try {
+                mEncoder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Failed to stop encoder, e: " + e);
+            }
+            mEncoder.release();
+            mEncoder = null;
+            mSource = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+}
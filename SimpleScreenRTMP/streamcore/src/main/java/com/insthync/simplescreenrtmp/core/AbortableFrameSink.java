@@ -0,0 +1,12 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Sink whose blocked write can be ended from another thread, e.g. when closing must not wait for a dead network.
+ */
+public interface AbortableFrameSink extends FrameSink {
+    /**
+     * Make a write blocked on the connection fail soon and keep later writes from connecting again.
+     * Unlike {@link #close()} this may be called from any thread, the sink still has to be closed.
+     */
+    void abort();
+}
@@ -0,0 +1,114 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves writes to the downstream sink onto a dedicated sender thread, so a slow network
+ * never blocks the thread draining the encoders. The downstream sink is closed on that thread
+ * too, as closing may still send held back frames. Closing discards what is still queued and waits
+ * for the sender thread only for {@link #CLOSE_TIMEOUT_MS}, then aborts a write blocked downstream.
+ */
+public class AsyncFrameSink extends FrameStage {
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long CLOSE_TIMEOUT_MS = 500;
+
+    private final FrameQueue mQueue;
+    private final StreamStats mStats;
+    private final boolean mIsReportingWriteErrors;
+    private final Thread mSenderThread;
+    private volatile long mDeliveredCount;
+    private volatile boolean mQuit;
+
+    public AsyncFrameSink(FrameSink downstream, int capacityBytes, StreamStats stats) {
+        this(downstream, capacityBytes, stats, false);
+    }
+
+    /**
+     * @param isReportingWriteErrors a failed downstream write discards what is queued and fails the queue,
+     *                               so a {@link SpoolingSink} in front keeps the frames until it recovers it
+     */
+    public AsyncFrameSink(FrameSink downstream, int capacityBytes, StreamStats stats, boolean isReportingWriteErrors) {
+        super(downstream);
+        mStats = stats;
+        mIsReportingWriteErrors = isReportingWriteErrors;
+        mQueue = new FrameQueue(capacityBytes, stats);
+        mSenderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendFrames();
+            }
+        }, "AsyncFrameSink");
+        // A sender stuck in a write the downstream sink cannot abort must not keep the process alive
+        mSenderThread.setDaemon(true);
+        mSenderThread.start();
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        return mQueue.offer(frame) ? 0 : -1;
+    }
+
+    private void sendFrames() {
+        try {
+            while (!mQuit) {
+                long millisUntilDue = super.flushDue();
+                long timeoutMs = millisUntilDue < 0 ? POLL_TIMEOUT_MS : Math.min(millisUntilDue, POLL_TIMEOUT_MS);
+                EncodedFrame frame = mQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+                if (frame == null)
+                    continue;
+                if (mDownstream.write(frame) < 0) {
+                    mStats.onWriteError(frame);
+                    if (mIsReportingWriteErrors)
+                        mQueue.fail();
+                } else {
+                    mDeliveredCount++;
+                    mStats.onFrameWritten(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mDownstream.close();
+        }
+    }
+
+    /**
+     * Batches downstream are flushed by the sender thread.
+     */
+    @Override
+    public long flushDue() {
+        return -1;
+    }
+
+    public FrameQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * @return number of frames the downstream sink accepted so far, a rising count means the connection works
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Discard what is still queued and let the sender thread close the downstream sink. If it is still
+     * blocked in a write after {@link #CLOSE_TIMEOUT_MS}, the downstream sink is aborted, so this never
+     * waits long for a dead network.
+     */
+    @Override
+    public void close() {
+        mQuit = true;
+        mQueue.close();
+        mQueue.clear();
+        try {
+            mSenderThread.join(CLOSE_TIMEOUT_MS);
+            if (mSenderThread.isAlive()) {
+                super.abort();
+                mSenderThread.join(CLOSE_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.Amf0;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpPublisher;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpUrl;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Pre-flight measurement of the round trip time and uplink throughput to the ingest server.
+ * It connects to the application without publishing and sends filler data messages for a
+ * while. A small socket send buffer keeps the measured rate close to what leaves the device.
+ * Socket timeouts do not cover writes, so the connection is closed from a timer if the probe
+ * is still blocked shortly after its duration, e.g. on a stalled uplink.
+ */
+public class BandwidthProbe {
+    public static final long DEFAULT_DURATION_MS = 1000;
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int PROBE_SEND_BUFFER_SIZE = 16 * 1024;
+    private static final int PROBE_MESSAGE_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final long DEADLINE_MARGIN_MS = 1000;
+
+    public static final class Result {
+        public final long rttMs;
+        public final long throughputBps;
+        public final long bytesSent;
+        public final long durationMs;
+
+        public Result(long rttMs, long throughputBps, long bytesSent, long durationMs) {
+            this.rttMs = rttMs;
+            this.throughputBps = throughputBps;
+            this.bytesSent = bytesSent;
+            this.durationMs = durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{rttMs=" + rttMs + ", throughputBps=" + throughputBps + ", bytesSent=" + bytesSent + ", durationMs=" + durationMs + "}";
+        }
+    }
+
+    private final RtmpUrl mUrl;
+    private final Clock mClock;
+    private final long mDurationMs;
+    private final int mMaxBytes;
+    private volatile boolean mIsTimedOut;
+
+    public BandwidthProbe(String url, Clock clock) {
+        this(url, clock, DEFAULT_DURATION_MS, DEFAULT_MAX_BYTES);
+    }
+
+    public BandwidthProbe(String url, Clock clock, long durationMs, int maxBytes) {
+        mUrl = RtmpUrl.parse(url);
+        mClock = clock;
+        mDurationMs = durationMs;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Blocks for about the probe duration, do not call it on the main thread.
+     *
+     * @throws SocketTimeoutException if the probe did not finish within its duration and a margin
+     */
+    public Result run() throws IOException {
+        final RtmpPublisher publisher = new RtmpPublisher(mUrl, mClock, new StreamStats(mClock));
+        Thread deadlineThread = null;
+        try {
+            publisher.open(CONNECT_TIMEOUT_MS);
+            deadlineThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(mDurationMs + DEADLINE_MARGIN_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    mIsTimedOut = true;
+                    publisher.close();
+                }
+            }, "BandwidthProbe-deadline");
+            deadlineThread.start();
+            return measure(publisher);
+        } catch (IOException e) {
+            if (mIsTimedOut)
+                throw new SocketTimeoutException("Bandwidth probe did not finish within " + (mDurationMs + DEADLINE_MARGIN_MS) + " ms");
+            throw e;
+        } finally {
+            if (deadlineThread != null)
+                deadlineThread.interrupt();
+            publisher.close();
+        }
+    }
+
+    private Result measure(RtmpPublisher publisher) throws IOException {
+        publisher.setSendBufferSize(PROBE_SEND_BUFFER_SIZE);
+
+        char[] filler = new char[PROBE_MESSAGE_SIZE];
+        Arrays.fill(filler, 'p');
+        // Sent on the connection's own stream, servers drop data which belongs to no published stream
+        byte[] payload = Amf0.encode("onProbe", new String(filler));
+        long bytesSent = 0;
+        long startTime = mClock.elapsedMillis();
+        long elapsedMs = 0;
+        while (elapsedMs < mDurationMs && bytesSent < mMaxBytes) {
+            publisher.sendMessage(RtmpMessage.TYPE_DATA_AMF0, (int) elapsedMs, payload);
+            publisher.flush();
+            bytesSent += payload.length;
+            elapsedMs = mClock.elapsedMillis() - startTime;
+        }
+        // What is still in the send buffer has not left yet. The requested size, as Linux reports
+        // twice that to account for its bookkeeping, which would understate the uplink.
+        long bytesOnWire = Math.max(0, bytesSent - PROBE_SEND_BUFFER_SIZE);
+        long throughputBps = bytesOnWire * 8000 / Math.max(1, elapsedMs);
+        return new Result(publisher.getHandshakeMillis(), throughputBps, bytesSent, elapsedMs);
+    }
+}
@@ -0,0 +1,14 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Sink that may hold frames back to write several of them at once. Whoever feeds it calls
+ * {@link #flushDue()} while idle, so nothing is held back longer than the sink allows.
+ */
+public interface BatchingFrameSink extends FrameSink {
+    /**
+     * Write the held back frames whose time has come.
+     *
+     * @return milliseconds until the next call is due, or a negative value if nothing is held back
+     */
+    long flushDue();
+}
@@ -0,0 +1,63 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Video encoding tiers ordered by bitrate, the starting tier is picked from a measured uplink.
+ */
+public class BitrateLadder {
+    // Leaves room for audio, protocol overhead and throughput swings
+    public static final double DEFAULT_USABLE_SHARE = 0.7;
+
+    public static final class Tier {
+        public final int width;
+        public final int height;
+        public final int fps;
+        public final int bitrate;
+
+        public Tier(int width, int height, int fps, int bitrate) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.bitrate = bitrate;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps + " " + bitrate + " bps";
+        }
+    }
+
+    private final List<Tier> mTiers = new ArrayList<Tier>();
+
+    /**
+     * @param tiers rows of width, height, fps and bitrate
+     */
+    public BitrateLadder(int[][] tiers) {
+        if (tiers.length == 0)
+            throw new IllegalArgumentException("Ladder without tiers");
+        for (int[] tier : tiers)
+            mTiers.add(new Tier(tier[0], tier[1], tier[2], tier[3]));
+        Collections.sort(mTiers, new Comparator<Tier>() {
+            @Override
+            public int compare(Tier a, Tier b) {
+                return a.bitrate < b.bitrate ? -1 : (a.bitrate == b.bitrate ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * @return the highest tier which fits into the usable share of the throughput, the lowest one if none does
+     */
+    public Tier select(long throughputBps, double usableShare) {
+        Tier selected = mTiers.get(0);
+        for (Tier tier : mTiers) {
+            if (tier.bitrate <= throughputBps * usableShare)
+                selected = tier;
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,15 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Monotonic time source, replaceable in tests.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long elapsedMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    long elapsedMillis();
+}
@@ -0,0 +1,41 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Lets only the first codec config (SPS/PPS, AudioSpecificConfig) of each track through.
+ * Encoders may repeat it, but the muxer must send its sequence headers once per connection.
+ */
+public class CodecConfigFilter extends FrameStage {
+    private boolean mIsSetVideoHeader;
+    private boolean mIsSetAudioHeader;
+
+    public CodecConfigFilter(FrameSink downstream) {
+        super(downstream);
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        if (!frame.isCodecConfig())
+            return mDownstream.write(frame);
+
+        if (frame.isVideo()) {
+            if (mIsSetVideoHeader)
+                return 0;
+            mIsSetVideoHeader = true;
+        } else if (frame.isAudio()) {
+            if (mIsSetAudioHeader)
+                return 0;
+            mIsSetAudioHeader = true;
+        }
+        return mDownstream.write(frame);
+    }
+
+    /**
+     * Let the next codec config of one track through again, e.g. after its encoder was rebuilt.
+     */
+    public void reset(int type) {
+        if (type == EncodedFrame.TYPE_VIDEO)
+            mIsSetVideoHeader = false;
+        else if (type == EncodedFrame.TYPE_AUDIO)
+            mIsSetAudioHeader = false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * One encoded access unit (H.264 in Annex-B form or raw AAC) on its way from an encoder to a sink.
+ */
+public final class EncodedFrame {
+    public static final int TYPE_VIDEO = 1;
+    public static final int TYPE_AUDIO = 2;
+
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 1 << 1;
+
+    public final int type;
+    public final int flags;
+    // Milliseconds since the start of the stream
+    public final int timestamp;
+    public final byte[] data;
+
+    public EncodedFrame(int type, int flags, int timestamp, byte[] data) {
+        this.type = type;
+        this.flags = flags;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    public boolean isVideo() {
+        return type == TYPE_VIDEO;
+    }
+
+    public boolean isAudio() {
+        return type == TYPE_AUDIO;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedFrame{type=" + type + ", flags=" + flags + ", timestamp=" + timestamp + ", size=" + data.length + "}";
+    }
+}
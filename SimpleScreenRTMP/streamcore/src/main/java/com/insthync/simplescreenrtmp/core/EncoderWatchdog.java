@@ -0,0 +1,94 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Decides when a video encoder has to be rebuilt. It watches the output cadence of the encoder,
+ * whether its input surface is attached and codec errors. An encoder fed by a surface with a
+ * repeat-previous-frame interval keeps producing output while the surface is attached, so a long
+ * silence means the codec is stuck. The encoder is drained whatever the sink does with the frames,
+ * so the state of the connection plays no part.
+ */
+public class EncoderWatchdog {
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_RECOVER = 1;
+    public static final int ACTION_GIVE_UP = 2;
+
+    public static final long DEFAULT_STALL_TIMEOUT_MS = 3000;
+    public static final int DEFAULT_MAX_RECOVERIES = 3;
+    public static final long DEFAULT_RECOVERY_WINDOW_MS = 60000;
+
+    private final Clock mClock;
+    private final StreamStats mStats;
+    private final long mStallTimeoutMs;
+    private final int mMaxRecoveries;
+    private final long mRecoveryWindowMs;
+    private final ArrayDeque<Long> mRecoveryTimes = new ArrayDeque<Long>();
+    private long mLastOutputTime;
+    private boolean mIsInputActive;
+    private boolean mIsCodecError;
+
+    public EncoderWatchdog(Clock clock, StreamStats stats) {
+        this(clock, stats, DEFAULT_STALL_TIMEOUT_MS, DEFAULT_MAX_RECOVERIES, DEFAULT_RECOVERY_WINDOW_MS);
+    }
+
+    public EncoderWatchdog(Clock clock, StreamStats stats, long stallTimeoutMs, int maxRecoveries, long recoveryWindowMs) {
+        mClock = clock;
+        mStats = stats;
+        mStallTimeoutMs = stallTimeoutMs;
+        mMaxRecoveries = maxRecoveries;
+        mRecoveryWindowMs = recoveryWindowMs;
+        mLastOutputTime = clock.elapsedMillis();
+    }
+
+    public synchronized void onEncoderOutput() {
+        mLastOutputTime = mClock.elapsedMillis();
+    }
+
+    /**
+     * The encoder input surface is attached to a display, output is expected from now on.
+     */
+    public synchronized void onInputAttached() {
+        mIsInputActive = true;
+        mLastOutputTime = mClock.elapsedMillis();
+    }
+
+    public synchronized void onInputDetached() {
+        mIsInputActive = false;
+    }
+
+    public synchronized void onCodecError() {
+        mIsCodecError = true;
+    }
+
+    public synchronized long getOutputIdleMillis() {
+        return mClock.elapsedMillis() - mLastOutputTime;
+    }
+
+    /**
+     * @return one of the ACTION_ constants
+     */
+    public synchronized int check() {
+        long now = mClock.elapsedMillis();
+        if (!mIsCodecError) {
+            if (!mIsInputActive || now - mLastOutputTime < mStallTimeoutMs)
+                return ACTION_NONE;
+        }
+        while (!mRecoveryTimes.isEmpty() && now - mRecoveryTimes.peekFirst() >= mRecoveryWindowMs)
+            mRecoveryTimes.pollFirst();
+        if (mRecoveryTimes.size() >= mMaxRecoveries)
+            return ACTION_GIVE_UP;
+        return ACTION_RECOVER;
+    }
+
+    /**
+     * The encoder was rebuilt, give the new one a full stall timeout to produce output.
+     */
+    public synchronized void onRecovered() {
+        long now = mClock.elapsedMillis();
+        mRecoveryTimes.addLast(now);
+        mLastOutputTime = now;
+        mIsCodecError = false;
+        mStats.onEncoderRecovery();
+    }
+}
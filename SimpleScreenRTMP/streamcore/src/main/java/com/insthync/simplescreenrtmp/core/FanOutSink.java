@@ -0,0 +1,44 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes every frame to several sinks, e.g. the audio track shared by all renditions.
+ */
+public class FanOutSink implements FrameSink {
+    private final List<FrameSink> mSinks = new ArrayList<FrameSink>();
+
+    public FanOutSink(FrameSink... sinks) {
+        for (FrameSink sink : sinks)
+            addSink(sink);
+    }
+
+    public void addSink(FrameSink sink) {
+        mSinks.add(sink);
+    }
+
+    /**
+     * Stop writing to this sink, closing it is left to the caller.
+     */
+    public void removeSink(FrameSink sink) {
+        mSinks.remove(sink);
+    }
+
+    /**
+     * @return the lowest result of all sinks, so a failure of any of them is seen
+     */
+    @Override
+    public int write(EncodedFrame frame) {
+        int result = Integer.MAX_VALUE;
+        for (FrameSink sink : mSinks)
+            result = Math.min(result, sink.write(frame));
+        return mSinks.isEmpty() ? 0 : result;
+    }
+
+    @Override
+    public void close() {
+        for (FrameSink sink : mSinks)
+            sink.close();
+    }
+}
@@ -0,0 +1,52 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the stream into an FLV file.
+ */
+public class FileSink implements FrameSink {
+    private final OutputStream mOutputStream;
+    private boolean mIsSetHeader;
+    private boolean mIsFailed;
+
+    public FileSink(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public FileSink(OutputStream outputStream) {
+        mOutputStream = new BufferedOutputStream(outputStream);
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        if (mIsFailed)
+            return -1;
+        byte[] tag = FlvMuxer.createTag(frame);
+        if (tag == null)
+            return -1;
+        try {
+            if (!mIsSetHeader) {
+                mOutputStream.write(FlvMuxer.createFileHeader(true, true));
+                mIsSetHeader = true;
+            }
+            mOutputStream.write(tag);
+            return tag.length;
+        } catch (IOException e) {
+            mIsFailed = true;
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            mOutputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Packs encoded frames into FLV tags, the same payload RTMP carries in its audio and video messages.
+ */
+public final class FlvMuxer {
+    public static final int TAG_TYPE_AUDIO = 8;
+    public static final int TAG_TYPE_VIDEO = 9;
+    public static final int TAG_TYPE_SCRIPT = 18;
+    public static final int TAG_HEADER_SIZE = 11;
+    public static final int PREVIOUS_TAG_SIZE = 4;
+
+    private static final int VIDEO_FRAME_KEY = 1;
+    private static final int VIDEO_FRAME_INTER = 2;
+    private static final int VIDEO_CODEC_AVC = 7;
+    private static final int AVC_SEQUENCE_HEADER = 0;
+    private static final int AVC_NALU = 1;
+    // AAC, 44 kHz, 16 bit, stereo. The real values are in the AudioSpecificConfig.
+    private static final int AUDIO_HEADER_AAC = 0xAF;
+    private static final int AAC_SEQUENCE_HEADER = 0;
+    private static final int AAC_RAW = 1;
+
+    private FlvMuxer() {
+    }
+
+    public static byte[] createFileHeader(boolean hasAudio, boolean hasVideo) {
+        return new byte[]{
+                'F', 'L', 'V', 1,
+                (byte) ((hasAudio ? 0x04 : 0) | (hasVideo ? 0x01 : 0)),
+                0, 0, 0, 9,
+                // PreviousTagSize0
+                0, 0, 0, 0
+        };
+    }
+
+    /**
+     * @return the complete tag followed by its previous tag size, or null if the frame cannot be muxed
+     */
+    public static byte[] createTag(EncodedFrame frame) {
+        byte[] body = createTagBody(frame);
+        return body != null ? createTag(getTagType(frame), frame.timestamp, body) : null;
+    }
+
+    /**
+     * @return the tag body alone, which is also the payload of an RTMP audio or video message
+     */
+    public static byte[] createTagBody(EncodedFrame frame) {
+        if (frame.isVideo())
+            return createVideoTagBody(frame);
+        if (frame.isAudio())
+            return createAudioTagBody(frame);
+        return null;
+    }
+
+    public static int getTagType(EncodedFrame frame) {
+        return frame.isVideo() ? TAG_TYPE_VIDEO : TAG_TYPE_AUDIO;
+    }
+
+    public static byte[] createTag(int tagType, int timestamp, byte[] body) {
+        int dataSize = body.length;
+        int tagSize = TAG_HEADER_SIZE + dataSize;
+        byte[] tag = new byte[tagSize + PREVIOUS_TAG_SIZE];
+        tag[0] = (byte) tagType;
+        writeInt24(tag, 1, dataSize);
+        writeInt24(tag, 4, timestamp & 0xFFFFFF);
+        tag[7] = (byte) (timestamp >>> 24);
+        // StreamID is always zero
+        System.arraycopy(body, 0, tag, TAG_HEADER_SIZE, dataSize);
+        writeInt32(tag, tagSize, tagSize);
+        return tag;
+    }
+
+    static byte[] createVideoTagBody(EncodedFrame frame) {
+        byte[] data = frame.data;
+        List<int[]> units = NalUnits.split(data);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(data.length + 16);
+        if (frame.isCodecConfig()) {
+            int[] sps = null;
+            int[] pps = null;
+            for (int[] unit : units) {
+                int type = NalUnits.getType(data, unit[0]);
+                if (type == NalUnits.TYPE_SPS && sps == null)
+                    sps = unit;
+                else if (type == NalUnits.TYPE_PPS && pps == null)
+                    pps = unit;
+            }
+            if (sps == null || pps == null || sps[1] < 4)
+                return null;
+            body.write(VIDEO_FRAME_KEY << 4 | VIDEO_CODEC_AVC);
+            body.write(AVC_SEQUENCE_HEADER);
+            writeInt24(body, 0);
+            // AVCDecoderConfigurationRecord
+            body.write(1);
+            body.write(data[sps[0] + 1]);
+            body.write(data[sps[0] + 2]);
+            body.write(data[sps[0] + 3]);
+            // 4 bytes NAL unit lengths
+            body.write(0xFF);
+            // One SPS
+            body.write(0xE1);
+            writeInt16(body, sps[1]);
+            body.write(data, sps[0], sps[1]);
+            // One PPS
+            body.write(1);
+            writeInt16(body, pps[1]);
+            body.write(data, pps[0], pps[1]);
+            return body.toByteArray();
+        }
+
+        boolean isKeyFrame = frame.isKeyFrame();
+        for (int[] unit : units) {
+            if (NalUnits.getType(data, unit[0]) == NalUnits.TYPE_IDR)
+                isKeyFrame = true;
+        }
+        body.write((isKeyFrame ? VIDEO_FRAME_KEY : VIDEO_FRAME_INTER) << 4 | VIDEO_CODEC_AVC);
+        body.write(AVC_NALU);
+        // Composition time, the encoders are configured without B-frames
+        writeInt24(body, 0);
+        for (int[] unit : units) {
+            writeInt32(body, unit[1]);
+            body.write(data, unit[0], unit[1]);
+        }
+        return body.toByteArray();
+    }
+
+    static byte[] createAudioTagBody(EncodedFrame frame) {
+        byte[] body = new byte[2 + frame.data.length];
+        body[0] = (byte) AUDIO_HEADER_AAC;
+        body[1] = (byte) (frame.isCodecConfig() ? AAC_SEQUENCE_HEADER : AAC_RAW);
+        System.arraycopy(frame.data, 0, body, 2, frame.data.length);
+        return body;
+    }
+
+    static void writeInt16(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeInt24(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeInt32(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeInt24(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 16);
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) value;
+    }
+
+    static void writeInt32(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
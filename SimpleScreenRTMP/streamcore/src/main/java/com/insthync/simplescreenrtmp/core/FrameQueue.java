@@ -0,0 +1,166 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded hand-off between the encoder drain and a slower sink.
+ * When the queue is full, video is dropped up to the next key frame so that the decoder
+ * never sees a frame whose reference is missing. Codec config is never dropped.
+ */
+public class FrameQueue {
+    private final ArrayDeque<EncodedFrame> mFrames = new ArrayDeque<EncodedFrame>();
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final int mCapacityBytes;
+    private final StreamStats mStats;
+    private int mQueuedBytes;
+    private boolean mIsWaitingForKeyFrame;
+    private boolean mIsFailed;
+    private boolean mIsClosed;
+
+    public FrameQueue(int capacityBytes, StreamStats stats) {
+        if (capacityBytes <= 0)
+            throw new IllegalArgumentException("capacityBytes <= 0");
+        mCapacityBytes = capacityBytes;
+        mStats = stats;
+    }
+
+    /**
+     * @return false if the frame was dropped, or refused while failed
+     */
+    public boolean offer(EncodedFrame frame) {
+        mLock.lock();
+        try {
+            if (mIsClosed)
+                return false;
+            if (mIsFailed)
+                return false;
+            if (!frame.isCodecConfig()) {
+                boolean isFull = mQueuedBytes + frame.data.length > mCapacityBytes;
+                if (frame.isVideo()) {
+                    if (isFull || (mIsWaitingForKeyFrame && !frame.isKeyFrame())) {
+                        mIsWaitingForKeyFrame = true;
+                        mStats.onFrameDropped(frame);
+                        return false;
+                    }
+                    mIsWaitingForKeyFrame = false;
+                } else if (isFull) {
+                    mStats.onFrameDropped(frame);
+                    return false;
+                }
+            }
+            mFrames.addLast(frame);
+            mQueuedBytes += frame.data.length;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the oldest frame, or null if none arrived within the timeout or the queue was closed
+     */
+    public EncodedFrame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lock();
+        try {
+            while (mFrames.isEmpty()) {
+                if (mIsClosed || nanos <= 0)
+                    return null;
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            EncodedFrame frame = mFrames.pollFirst();
+            mQueuedBytes -= frame.data.length;
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int size() {
+        mLock.lock();
+        try {
+            return mFrames.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getQueuedBytes() {
+        mLock.lock();
+        try {
+            return mQueuedBytes;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * The consumer failed to deliver a frame. What is still queued is discarded and every
+     * {@link #offer} fails until {@link #recover()}, so the producer can keep the frames itself.
+     * Unlike a full queue, the frames do not count as dropped.
+     */
+    public void fail() {
+        mLock.lock();
+        try {
+            mFrames.clear();
+            mQueuedBytes = 0;
+            mIsFailed = true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * The producer wants to try the consumer again after {@link #fail()}.
+     */
+    public void recover() {
+        mLock.lock();
+        try {
+            mIsFailed = false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean isFailed() {
+        mLock.lock();
+        try {
+            return mIsFailed;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Discard what is still queued, e.g. when the consumer is told to quit. The frames count as dropped.
+     */
+    public void clear() {
+        mLock.lock();
+        try {
+            for (EncodedFrame frame : mFrames)
+                mStats.onFrameDropped(frame);
+            mFrames.clear();
+            mQueuedBytes = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Reject new frames and wake up the consumer. Frames already queued can still be polled.
+     */
+    public void close() {
+        mLock.lock();
+        try {
+            mIsClosed = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Consumer of encoded frames, e.g. an RTMP connection, a file or nothing at all.
+ */
+public interface FrameSink {
+    /**
+     * @return a non-negative value on success, a negative value if the frame could not be written
+     */
+    int write(EncodedFrame frame);
+
+    void close();
+}
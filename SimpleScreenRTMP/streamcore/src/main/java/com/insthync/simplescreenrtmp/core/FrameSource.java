@@ -0,0 +1,15 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Producer of encoded frames, e.g. a hardware encoder.
+ */
+public interface FrameSource {
+    /**
+     * Forward every frame that is currently available to the sink without blocking for new ones.
+     *
+     * @return number of frames forwarded
+     */
+    int drain(FrameSink sink);
+
+    void release();
+}
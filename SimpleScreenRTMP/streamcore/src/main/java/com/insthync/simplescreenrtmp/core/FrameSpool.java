@@ -0,0 +1,325 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring of encoded frames in a memory-mapped file. It keeps what could not be sent
+ * while the connection was down, and it survives a restart of the process.
+ * <p>
+ * When the ring is full the oldest GOP is evicted, so the spool always starts at a key frame.
+ * The codec config which applies to the head of the ring is kept in the file header, so what
+ * remains can still be decoded after its own config was evicted or uploaded.
+ * <p>
+ * File layout: a {@link #HEADER_SIZE} byte header then the ring. Every record is
+ * int length, byte type, byte flags, int timestamp, then the data, and may wrap around the
+ * end of the ring.
+ */
+public class FrameSpool {
+    public static final int HEADER_SIZE = 4096;
+    public static final int RECORD_HEADER_SIZE = 10;
+    private static final int MAGIC = 0x53504C31; // "SPL1"
+    private static final int MAX_CONFIG_SIZE = 1024;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_HEAD = 8;
+    private static final int OFFSET_USED = 12;
+    private static final int OFFSET_VIDEO_CONFIG = 16;
+    private static final int OFFSET_AUDIO_CONFIG = OFFSET_VIDEO_CONFIG + 4 + MAX_CONFIG_SIZE;
+
+    /**
+     * A spooled frame and its position in the spool.
+     */
+    public static final class Entry {
+        public final long sequence;
+        public final EncodedFrame frame;
+
+        Entry(long sequence, EncodedFrame frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMapped;
+    private final ByteBuffer mHeader;
+    private final ByteBuffer mRing;
+    private final int mCapacity;
+    private final StreamStats mStats;
+    private final byte[] mRecordHeader = new byte[RECORD_HEADER_SIZE];
+    private int mHead;
+    private int mUsed;
+    private int mCount;
+    private int mKeyFrameCount;
+    // Sequence number of the frame at the head, increases whenever the head is removed
+    private long mHeadSequence;
+    private EncodedFrame mHeadVideoConfig;
+    private EncodedFrame mHeadAudioConfig;
+
+    public FrameSpool(File file, int capacityBytes, StreamStats stats) throws IOException {
+        if (capacityBytes <= RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("capacityBytes too small: " + capacityBytes);
+        mCapacity = capacityBytes;
+        mStats = stats;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mMapped = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacityBytes);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mMapped.position(0).limit(HEADER_SIZE);
+        mHeader = mMapped.slice();
+        mMapped.limit(HEADER_SIZE + capacityBytes).position(HEADER_SIZE);
+        mRing = mMapped.slice();
+        mMapped.clear();
+        if (!restore())
+            reset();
+    }
+
+    /**
+     * @return false if the frame is larger than the whole spool
+     */
+    public synchronized boolean append(EncodedFrame frame) {
+        int recordSize = RECORD_HEADER_SIZE + frame.data.length;
+        if (recordSize > mCapacity) {
+            mStats.onFrameDropped(frame);
+            return false;
+        }
+        while (mCapacity - mUsed < recordSize)
+            evictOldestGop();
+
+        int tail = (mHead + mUsed) % mCapacity;
+        ByteBuffer recordHeader = ByteBuffer.wrap(mRecordHeader);
+        recordHeader.putInt(frame.data.length);
+        recordHeader.put((byte) frame.type);
+        recordHeader.put((byte) frame.flags);
+        recordHeader.putInt(frame.timestamp);
+        writeRing(tail, mRecordHeader, 0, RECORD_HEADER_SIZE);
+        writeRing((tail + RECORD_HEADER_SIZE) % mCapacity, frame.data, 0, frame.data.length);
+
+        mUsed += recordSize;
+        mCount++;
+        if (isVideoKeyFrame(frame))
+            mKeyFrameCount++;
+        mHeader.putInt(OFFSET_USED, mUsed);
+        mStats.onFrameSpooled(frame);
+        return true;
+    }
+
+    /**
+     * @return the oldest frame without removing it, or null if the spool is empty
+     */
+    public synchronized Entry peek() {
+        if (mCount == 0)
+            return null;
+        return new Entry(mHeadSequence, readRecord(mHead));
+    }
+
+    /**
+     * Remove the oldest frame if it is still the one returned by {@link #peek()} with this sequence.
+     * It may have been evicted meanwhile.
+     */
+    public synchronized boolean remove(long sequence) {
+        if (mCount == 0 || sequence != mHeadSequence)
+            return false;
+        removeHead();
+        return true;
+    }
+
+    /**
+     * @return the codec config which applies to the oldest frame but is no longer in the ring
+     */
+    public synchronized List<EncodedFrame> getHeadConfigs() {
+        List<EncodedFrame> configs = new ArrayList<EncodedFrame>(2);
+        if (mHeadVideoConfig != null)
+            configs.add(mHeadVideoConfig);
+        if (mHeadAudioConfig != null)
+            configs.add(mHeadAudioConfig);
+        return configs;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized int getUsedBytes() {
+        return mUsed;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public synchronized void close() {
+        mMapped.force();
+        try {
+            mFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void evictOldestGop() {
+        if (mKeyFrameCount == 0) {
+            // No GOP to align to, e.g. audio only
+            mStats.onFrameEvicted();
+            removeHead();
+            return;
+        }
+        do {
+            mStats.onFrameEvicted();
+            removeHead();
+        } while (mCount > 0 && !isVideoKeyFrameAt(mHead));
+    }
+
+    private void removeHead() {
+        EncodedFrame frame = readRecord(mHead);
+        if (frame.isCodecConfig())
+            setHeadConfig(frame);
+        if (isVideoKeyFrame(frame))
+            mKeyFrameCount--;
+        int recordSize = RECORD_HEADER_SIZE + frame.data.length;
+        mHead = (mHead + recordSize) % mCapacity;
+        mUsed -= recordSize;
+        mCount--;
+        mHeadSequence++;
+        mHeader.putInt(OFFSET_HEAD, mHead);
+        mHeader.putInt(OFFSET_USED, mUsed);
+    }
+
+    private void setHeadConfig(EncodedFrame config) {
+        if (config.data.length > MAX_CONFIG_SIZE)
+            return;
+        int offset;
+        if (config.isVideo()) {
+            mHeadVideoConfig = config;
+            offset = OFFSET_VIDEO_CONFIG;
+        } else {
+            mHeadAudioConfig = config;
+            offset = OFFSET_AUDIO_CONFIG;
+        }
+        mHeader.putInt(offset, config.data.length);
+        ByteBuffer buffer = mHeader.duplicate();
+        buffer.position(offset + 4);
+        buffer.put(config.data);
+    }
+
+    private EncodedFrame readHeadConfig(int type, int offset) {
+        int length = mHeader.getInt(offset);
+        if (length <= 0 || length > MAX_CONFIG_SIZE)
+            return null;
+        byte[] data = new byte[length];
+        ByteBuffer buffer = mHeader.duplicate();
+        buffer.position(offset + 4);
+        buffer.get(data);
+        return new EncodedFrame(type, EncodedFrame.FLAG_CODEC_CONFIG, 0, data);
+    }
+
+    private boolean isVideoKeyFrameAt(int position) {
+        readRing(position, mRecordHeader, 0, RECORD_HEADER_SIZE);
+        return mRecordHeader[4] == EncodedFrame.TYPE_VIDEO
+                && (mRecordHeader[5] & EncodedFrame.FLAG_KEY_FRAME) != 0
+                && (mRecordHeader[5] & EncodedFrame.FLAG_CODEC_CONFIG) == 0;
+    }
+
+    private static boolean isVideoKeyFrame(EncodedFrame frame) {
+        return frame.isVideo() && frame.isKeyFrame() && !frame.isCodecConfig();
+    }
+
+    private EncodedFrame readRecord(int position) {
+        readRing(position, mRecordHeader, 0, RECORD_HEADER_SIZE);
+        ByteBuffer recordHeader = ByteBuffer.wrap(mRecordHeader);
+        int length = recordHeader.getInt();
+        int type = recordHeader.get();
+        int flags = recordHeader.get();
+        int timestamp = recordHeader.getInt();
+        byte[] data = new byte[length];
+        readRing((position + RECORD_HEADER_SIZE) % mCapacity, data, 0, length);
+        return new EncodedFrame(type, flags, timestamp, data);
+    }
+
+    private void writeRing(int position, byte[] src, int offset, int length) {
+        int first = Math.min(length, mCapacity - position);
+        ByteBuffer buffer = mRing.duplicate();
+        buffer.position(position);
+        buffer.put(src, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.put(src, offset + first, length - first);
+        }
+    }
+
+    private void readRing(int position, byte[] dst, int offset, int length) {
+        int first = Math.min(length, mCapacity - position);
+        ByteBuffer buffer = mRing.duplicate();
+        buffer.position(position);
+        buffer.get(dst, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.get(dst, offset + first, length - first);
+        }
+    }
+
+    /**
+     * Pick up the frames left by a previous session.
+     *
+     * @return false if the file holds no valid spool of the same capacity
+     */
+    private boolean restore() {
+        if (mHeader.getInt(OFFSET_MAGIC) != MAGIC || mHeader.getInt(OFFSET_CAPACITY) != mCapacity)
+            return false;
+        int head = mHeader.getInt(OFFSET_HEAD);
+        int used = mHeader.getInt(OFFSET_USED);
+        if (head < 0 || head >= mCapacity || used < 0 || used > mCapacity)
+            return false;
+
+        int count = 0;
+        int keyFrameCount = 0;
+        int scanned = 0;
+        while (scanned < used) {
+            if (used - scanned < RECORD_HEADER_SIZE)
+                return false;
+            int position = (head + scanned) % mCapacity;
+            readRing(position, mRecordHeader, 0, RECORD_HEADER_SIZE);
+            int length = ByteBuffer.wrap(mRecordHeader).getInt();
+            if (length < 0 || length > used - scanned - RECORD_HEADER_SIZE)
+                return false;
+            if (isVideoKeyFrameAt(position))
+                keyFrameCount++;
+            scanned += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+        mHead = head;
+        mUsed = used;
+        mCount = count;
+        mKeyFrameCount = keyFrameCount;
+        mHeadVideoConfig = readHeadConfig(EncodedFrame.TYPE_VIDEO, OFFSET_VIDEO_CONFIG);
+        mHeadAudioConfig = readHeadConfig(EncodedFrame.TYPE_AUDIO, OFFSET_AUDIO_CONFIG);
+        return true;
+    }
+
+    private void reset() {
+        mHead = 0;
+        mUsed = 0;
+        mCount = 0;
+        mKeyFrameCount = 0;
+        mHeadVideoConfig = null;
+        mHeadAudioConfig = null;
+        mHeader.putInt(OFFSET_MAGIC, MAGIC);
+        mHeader.putInt(OFFSET_CAPACITY, mCapacity);
+        mHeader.putInt(OFFSET_HEAD, 0);
+        mHeader.putInt(OFFSET_USED, 0);
+        mHeader.putInt(OFFSET_VIDEO_CONFIG, 0);
+        mHeader.putInt(OFFSET_AUDIO_CONFIG, 0);
+    }
+}
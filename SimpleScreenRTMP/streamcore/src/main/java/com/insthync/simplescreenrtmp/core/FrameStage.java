@@ -0,0 +1,38 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Processing step between a source and a sink. By default every frame is passed through unchanged,
+ * flushing and aborting are left to the downstream sink.
+ */
+public abstract class FrameStage implements BatchingFrameSink, AbortableFrameSink {
+    protected final FrameSink mDownstream;
+
+    protected FrameStage(FrameSink downstream) {
+        if (downstream == null)
+            throw new IllegalArgumentException("downstream == null");
+        mDownstream = downstream;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        return mDownstream.write(frame);
+    }
+
+    @Override
+    public long flushDue() {
+        if (mDownstream instanceof BatchingFrameSink)
+            return ((BatchingFrameSink) mDownstream).flushDue();
+        return -1;
+    }
+
+    @Override
+    public void abort() {
+        if (mDownstream instanceof AbortableFrameSink)
+            ((AbortableFrameSink) mDownstream).abort();
+    }
+
+    @Override
+    public void close() {
+        mDownstream.close();
+    }
+}
@@ -0,0 +1,85 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the key frames of several renditions of the same picture on the same timestamps, so a
+ * server can switch a viewer between them at any key frame. The encoders are asked for a key
+ * frame together once per interval. A key frame nobody asked for, e.g. after an encoder was
+ * rebuilt, makes the other renditions follow at once.
+ */
+public class KeyFrameAligner {
+    private final Clock mClock;
+    private final StreamStats mStats;
+    private final long mIntervalMs;
+    private final int mRenditionCount;
+    private final boolean[] mIsPending;
+    private long mLastRequestTime;
+    private int mRequests;
+    private int mRoundTimestamp = -1;
+
+    public KeyFrameAligner(Clock clock, StreamStats stats, long intervalMs, int renditionCount) {
+        if (renditionCount < 1 || renditionCount > 32)
+            throw new IllegalArgumentException("renditionCount out of range: " + renditionCount);
+        mClock = clock;
+        mStats = stats;
+        mIntervalMs = intervalMs;
+        mRenditionCount = renditionCount;
+        mIsPending = new boolean[renditionCount];
+        // The encoders start with a key frame anyway
+        Arrays.fill(mIsPending, true);
+        mLastRequestTime = clock.elapsedMillis();
+    }
+
+    public synchronized void onKeyFrame(int rendition, int timestamp) {
+        if (mIsPending[rendition]) {
+            mIsPending[rendition] = false;
+            if (mRoundTimestamp >= 0)
+                mStats.onKeyFrameSkew(Math.abs(timestamp - mRoundTimestamp));
+            else
+                mRoundTimestamp = timestamp;
+            return;
+        }
+        // Unsolicited, start a new round which the other renditions have to join
+        for (int i = 0; i < mRenditionCount; i++) {
+            if (i != rendition && !mIsPending[i]) {
+                mIsPending[i] = true;
+                mRequests |= 1 << i;
+            }
+        }
+        mRoundTimestamp = timestamp;
+        mLastRequestTime = mClock.elapsedMillis();
+    }
+
+    /**
+     * @return bit mask of the renditions to ask for a key frame now, 0 most of the time
+     */
+    public synchronized int takeKeyFrameRequests() {
+        long now = mClock.elapsedMillis();
+        if (now - mLastRequestTime >= mIntervalMs) {
+            mLastRequestTime = now;
+            mRoundTimestamp = -1;
+            for (int i = 0; i < mRenditionCount; i++) {
+                mIsPending[i] = true;
+                mRequests |= 1 << i;
+            }
+        }
+        int requests = mRequests;
+        mRequests = 0;
+        return requests;
+    }
+
+    /**
+     * @return a stage reporting the key frames of one rendition to this aligner
+     */
+    public FrameSink monitor(final int rendition, FrameSink downstream) {
+        return new FrameStage(downstream) {
+            @Override
+            public int write(EncodedFrame frame) {
+                if (frame.isVideo() && frame.isKeyFrame() && !frame.isCodecConfig())
+                    onKeyFrame(rendition, frame.timestamp);
+                return mDownstream.write(frame);
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Embeds the capture wall clock time into a video frame once per interval, as an H.264 SEI
+ * user data unregistered message in front of the slices. Players skip it and it survives every
+ * sink, {@link #readStamp(byte[])} finds it again on the receiving side.
+ */
+public class LatencyStamper extends FrameStage {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    // 16 ASCII bytes, as the decimal time they never form a start code, so no emulation prevention is needed
+    private static final byte[] STAMP_UUID = "SimpleScreenRTMP".getBytes(US_ASCII);
+    private static final int SEI_USER_DATA_UNREGISTERED = 5;
+    private static final int RBSP_TRAILING_BITS = 0x80;
+    private static final int AVC_NALU = 1;
+    private static final int VIDEO_TAG_HEADER_SIZE = 5;
+
+    private final TimestampBase mTimestampBase;
+    private final long mIntervalMs;
+    private boolean mHasStamp;
+    private int mLastStampTimestamp;
+
+    public LatencyStamper(FrameSink downstream, TimestampBase timestampBase, long intervalMs) {
+        super(downstream);
+        mTimestampBase = timestampBase;
+        mIntervalMs = intervalMs;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        if (frame.isVideo() && !frame.isCodecConfig() && mTimestampBase.isStarted()
+                && (!mHasStamp || frame.timestamp - mLastStampTimestamp >= mIntervalMs)) {
+            frame = stamp(frame, mTimestampBase.toWallClockMillis(frame.timestamp));
+            mHasStamp = true;
+            mLastStampTimestamp = frame.timestamp;
+        }
+        return mDownstream.write(frame);
+    }
+
+    /**
+     * @return a copy of the Annex-B video frame with a SEI message carrying the wall clock time
+     */
+    public static EncodedFrame stamp(EncodedFrame frame, long wallClockMs) {
+        List<int[]> units = NalUnits.split(frame.data);
+        byte[] sei = createSeiNalUnit(wallClockMs);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(frame.data.length + sei.length + 8);
+        boolean isStamped = false;
+        for (int[] unit : units) {
+            int type = NalUnits.getType(frame.data, unit[0]);
+            // SEI has to come before the first slice of the access unit
+            if (!isStamped && type >= NalUnits.TYPE_SLICE && type <= NalUnits.TYPE_IDR) {
+                writeStartCode(data);
+                data.write(sei, 0, sei.length);
+                isStamped = true;
+            }
+            writeStartCode(data);
+            data.write(frame.data, unit[0], unit[1]);
+        }
+        if (!isStamped)
+            return frame;
+        return new EncodedFrame(frame.type, frame.flags, frame.timestamp, data.toByteArray());
+    }
+
+    static byte[] createSeiNalUnit(long wallClockMs) {
+        byte[] time = Long.toString(wallClockMs).getBytes(US_ASCII);
+        int payloadSize = STAMP_UUID.length + time.length;
+        ByteArrayOutputStream sei = new ByteArrayOutputStream(payloadSize + 4);
+        sei.write(NalUnits.TYPE_SEI);
+        sei.write(SEI_USER_DATA_UNREGISTERED);
+        sei.write(payloadSize);
+        sei.write(STAMP_UUID, 0, STAMP_UUID.length);
+        sei.write(time, 0, time.length);
+        sei.write(RBSP_TRAILING_BITS);
+        return sei.toByteArray();
+    }
+
+    /**
+     * @param videoTagBody body of an FLV video tag or RTMP video message
+     * @return the stamped capture wall clock time, or -1 if the frame carries no stamp
+     */
+    public static long readStamp(byte[] videoTagBody) {
+        if (videoTagBody.length < VIDEO_TAG_HEADER_SIZE || videoTagBody[1] != AVC_NALU)
+            return -1;
+        int offset = VIDEO_TAG_HEADER_SIZE;
+        while (offset + 4 <= videoTagBody.length) {
+            int length = (videoTagBody[offset] & 0xFF) << 24 | (videoTagBody[offset + 1] & 0xFF) << 16
+                    | (videoTagBody[offset + 2] & 0xFF) << 8 | (videoTagBody[offset + 3] & 0xFF);
+            offset += 4;
+            if (length <= 0 || offset + length > videoTagBody.length)
+                return -1;
+            if (NalUnits.getType(videoTagBody, offset) == NalUnits.TYPE_SEI) {
+                long stamp = readSeiStamp(videoTagBody, offset + 1, offset + length);
+                if (stamp >= 0)
+                    return stamp;
+            }
+            offset += length;
+        }
+        return -1;
+    }
+
+    private static long readSeiStamp(byte[] data, int offset, int end) {
+        if (offset + 2 > end || (data[offset] & 0xFF) != SEI_USER_DATA_UNREGISTERED)
+            return -1;
+        int payloadSize = data[offset + 1] & 0xFF;
+        int payloadStart = offset + 2;
+        if (payloadSize <= STAMP_UUID.length || payloadStart + payloadSize > end)
+            return -1;
+        if (!Arrays.equals(STAMP_UUID, Arrays.copyOfRange(data, payloadStart, payloadStart + STAMP_UUID.length)))
+            return -1;
+        String time = new String(data, payloadStart + STAMP_UUID.length, payloadSize - STAMP_UUID.length, US_ASCII);
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeStartCode(ByteArrayOutputStream out) {
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+    }
+}
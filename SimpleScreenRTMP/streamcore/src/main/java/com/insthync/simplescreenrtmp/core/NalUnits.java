@@ -0,0 +1,78 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for H.264 NAL units in Annex-B byte stream form, as emitted by MediaCodec.
+ */
+public final class NalUnits {
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+
+    private NalUnits() {
+    }
+
+    /**
+     * @return {offset, length} of every NAL unit without its start code. A buffer without any
+     * start code is treated as a single NAL unit.
+     */
+    public static List<int[]> split(byte[] data, int offset, int length) {
+        List<int[]> units = new ArrayList<int[]>();
+        int end = offset + length;
+        int start = findStartCode(data, offset, end);
+        if (start < 0) {
+            if (length > 0)
+                units.add(new int[]{offset, length});
+            return units;
+        }
+        int unitStart = skipStartCode(data, start);
+        while (unitStart < end) {
+            int next = findStartCode(data, unitStart, end);
+            int unitEnd = next < 0 ? end : next;
+            // Trailing zero bytes belong to the next four byte start code
+            while (unitEnd > unitStart && data[unitEnd - 1] == 0 && next >= 0)
+                unitEnd--;
+            if (unitEnd > unitStart)
+                units.add(new int[]{unitStart, unitEnd - unitStart});
+            if (next < 0)
+                break;
+            unitStart = skipStartCode(data, next);
+        }
+        return units;
+    }
+
+    public static List<int[]> split(byte[] data) {
+        return split(data, 0, data.length);
+    }
+
+    public static int getType(byte[] data, int offset) {
+        return data[offset] & 0x1F;
+    }
+
+    public static boolean containsType(byte[] data, int type) {
+        for (int[] unit : split(data)) {
+            if (getType(data, unit[0]) == type)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the first byte of a 00 00 01 start code, or -1
+     */
+    private static int findStartCode(byte[] data, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int skipStartCode(byte[] data, int index) {
+        return index + 3;
+    }
+}
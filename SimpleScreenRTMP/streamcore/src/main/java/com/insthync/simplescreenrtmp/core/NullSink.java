@@ -0,0 +1,30 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Discards every frame, only counts them. Useful to measure the encoders alone.
+ */
+public class NullSink implements FrameSink {
+    private final StreamStats mStats;
+
+    public NullSink() {
+        this(new StreamStats());
+    }
+
+    public NullSink(StreamStats stats) {
+        mStats = stats;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        mStats.onFrameWritten(frame);
+        return frame.data.length;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public StreamStats getStats() {
+        return mStats;
+    }
+}
@@ -0,0 +1,66 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpPublisher;
+
+/**
+ * Token bucket spreading video bursts such as key frames over time. Tokens are bytes, they accrue
+ * at the target bitrate times the pacing factor, up to a small burst. When the queued video would
+ * take longer than the window at that rate, the rate is raised so pacing never adds more than the
+ * window. Audio spends tokens without ever waiting for them.
+ */
+public class Pacer {
+    public static final double DEFAULT_PACING_FACTOR = 2.5;
+    private static final long BURST_MS = 10;
+    // Video goes out in RTMP chunks, one of them always has to fit into the bucket
+    private static final int MIN_BURST_BYTES = RtmpPublisher.CHUNK_SIZE;
+
+    private final Clock mClock;
+    private final long mBytesPerSecond;
+    private final long mWindowMs;
+    private double mTokens;
+    private long mLastRefillTime;
+
+    public Pacer(Clock clock, int targetBitrate, double pacingFactor, long windowMs) {
+        mClock = clock;
+        mBytesPerSecond = Math.max(1, (long) (targetBitrate / 8 * pacingFactor));
+        mWindowMs = windowMs;
+        mLastRefillTime = clock.elapsedMillis();
+        mTokens = getBurstBytes(mBytesPerSecond);
+    }
+
+    /**
+     * @return bytes per second at which a backlog of the given size is sent
+     */
+    public long getRate(long queuedBytes) {
+        return Math.max(mBytesPerSecond, queuedBytes * 1000 / mWindowMs);
+    }
+
+    /**
+     * @param queuedBytes video waiting to be sent, including these bytes
+     * @return 0 if the bytes may be sent now, otherwise milliseconds until they may
+     */
+    public long getMillisUntilSendable(int bytes, long queuedBytes) {
+        long rate = getRate(queuedBytes);
+        refill(rate);
+        if (mTokens >= bytes)
+            return 0;
+        return Math.max(1, (long) Math.ceil((bytes - mTokens) * 1000 / rate));
+    }
+
+    public void onSent(int bytes) {
+        refill(mBytesPerSecond);
+        mTokens -= bytes;
+        // Audio may overdraw the bucket, but only by one burst
+        mTokens = Math.max(mTokens, -getBurstBytes(mBytesPerSecond));
+    }
+
+    private void refill(long rate) {
+        long now = mClock.elapsedMillis();
+        mTokens = Math.min(mTokens + (now - mLastRefillTime) * rate / 1000.0, getBurstBytes(rate));
+        mLastRefillTime = now;
+    }
+
+    private static double getBurstBytes(long rate) {
+        return Math.max(rate * BURST_MS / 1000.0, MIN_BURST_BYTES);
+    }
+}
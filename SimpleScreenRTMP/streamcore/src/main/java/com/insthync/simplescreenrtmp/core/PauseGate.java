@@ -0,0 +1,74 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Holds back video while the stream is paused, so encoders and connections can stay up.
+ * Audio keeps flowing and one video key frame per keepalive interval is let through, which
+ * keeps the session alive and the picture decodable. After resuming, video starts again
+ * with the next key frame.
+ */
+public class PauseGate extends FrameStage {
+    public static final long DEFAULT_KEEPALIVE_INTERVAL_MS = 2000;
+
+    private final Clock mClock;
+    private final StreamStats mStats;
+    private final long mKeepaliveIntervalMs;
+    private boolean mIsPaused;
+    private boolean mIsWaitingForKeyFrame;
+    private boolean mHasKeepalive;
+    private long mLastKeepaliveTime;
+
+    public PauseGate(FrameSink downstream, Clock clock, StreamStats stats) {
+        this(downstream, clock, stats, DEFAULT_KEEPALIVE_INTERVAL_MS);
+    }
+
+    public PauseGate(FrameSink downstream, Clock clock, StreamStats stats, long keepaliveIntervalMs) {
+        super(downstream);
+        mClock = clock;
+        mStats = stats;
+        mKeepaliveIntervalMs = keepaliveIntervalMs;
+    }
+
+    public synchronized void pause() {
+        mIsPaused = true;
+        mHasKeepalive = false;
+    }
+
+    /**
+     * Request a key frame from the encoder together with this, video is held back until it arrives.
+     */
+    public synchronized void resume() {
+        mIsPaused = false;
+        mIsWaitingForKeyFrame = true;
+    }
+
+    public synchronized boolean isPaused() {
+        return mIsPaused;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        if (!frame.isVideo() || frame.isCodecConfig() || isPassing(frame))
+            return mDownstream.write(frame);
+        mStats.onFrameHeldBack(frame);
+        return 0;
+    }
+
+    private synchronized boolean isPassing(EncodedFrame frame) {
+        if (mIsPaused) {
+            if (!frame.isKeyFrame())
+                return false;
+            long now = mClock.elapsedMillis();
+            if (mHasKeepalive && now - mLastKeepaliveTime < mKeepaliveIntervalMs)
+                return false;
+            mHasKeepalive = true;
+            mLastKeepaliveTime = now;
+            return true;
+        }
+        if (mIsWaitingForKeyFrame) {
+            if (!frame.isKeyFrame())
+                return false;
+            mIsWaitingForKeyFrame = false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the stream of a sink decodable across its reconnects. The latest codec config of each
+ * track is remembered and sent first on every new connection, then video is held back until
+ * the next key frame. {@link CodecConfigFilter} lets the config through once per session only,
+ * so a sink which reconnects by itself has to do this.
+ */
+public class ReconnectFilter {
+    public static final int SEND = 0;
+    // Codec config the current connection already has
+    public static final int SKIP = 1;
+    // Video whose reference frame the current connection never got
+    public static final int DROP = 2;
+
+    private EncodedFrame mVideoConfig;
+    private EncodedFrame mAudioConfig;
+    private EncodedFrame mSentVideoConfig;
+    private EncodedFrame mSentAudioConfig;
+    private boolean mIsWaitingForKeyFrame;
+
+    /**
+     * A new connection was opened, send what this returns on it before anything else.
+     *
+     * @param timestamp timestamp of the frame about to be sent, the config is stamped with it
+     * @return the remembered codec config
+     */
+    public List<EncodedFrame> onConnected(int timestamp) {
+        mSentVideoConfig = mVideoConfig;
+        mSentAudioConfig = mAudioConfig;
+        mIsWaitingForKeyFrame = true;
+        List<EncodedFrame> configs = new ArrayList<EncodedFrame>(2);
+        if (mVideoConfig != null)
+            configs.add(new EncodedFrame(mVideoConfig.type, mVideoConfig.flags, timestamp, mVideoConfig.data));
+        if (mAudioConfig != null)
+            configs.add(new EncodedFrame(mAudioConfig.type, mAudioConfig.flags, timestamp, mAudioConfig.data));
+        return configs;
+    }
+
+    /**
+     * Remember the codec config, call it for every frame before the connection is checked.
+     */
+    public void remember(EncodedFrame frame) {
+        if (!frame.isCodecConfig())
+            return;
+        if (frame.isVideo())
+            mVideoConfig = frame;
+        else
+            mAudioConfig = frame;
+    }
+
+    /**
+     * @return {@link #SEND}, {@link #SKIP} or {@link #DROP} for this frame on the current connection
+     */
+    public int filter(EncodedFrame frame) {
+        if (frame.isCodecConfig()) {
+            if (frame.isVideo()) {
+                if (isSame(frame, mSentVideoConfig))
+                    return SKIP;
+                mSentVideoConfig = frame;
+            } else {
+                if (isSame(frame, mSentAudioConfig))
+                    return SKIP;
+                mSentAudioConfig = frame;
+            }
+            return SEND;
+        }
+        if (frame.isVideo() && mIsWaitingForKeyFrame) {
+            if (!frame.isKeyFrame())
+                return DROP;
+            mIsWaitingForKeyFrame = false;
+        }
+        return SEND;
+    }
+
+    private static boolean isSame(EncodedFrame config, EncodedFrame sentConfig) {
+        return sentConfig != null && Arrays.equals(config.data, sentConfig.data);
+    }
+}
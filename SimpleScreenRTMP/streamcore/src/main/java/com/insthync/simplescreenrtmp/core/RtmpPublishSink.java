@@ -0,0 +1,272 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpPublisher;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpUrl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Publishes frames over a plain Java RTMP connection. Frames are coalesced by a {@link WriteCoalescer}
+ * and each batch leaves in one socket write, optionally as a single RTMP aggregate message.
+ * With a {@link Pacer}, video is sent chunk by chunk as the pacer allows while audio goes out
+ * right away, between the chunks of a large video frame if need be.
+ * Connecting is deferred to the first write, so it happens on the sender thread. A new connection
+ * starts with the last codec config, video continues with the next key frame.
+ */
+public class RtmpPublishSink implements BatchingFrameSink, AbortableFrameSink {
+    private static final long RECONNECT_INTERVAL_MS = 2000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final RtmpUrl mUrl;
+    private final Clock mClock;
+    private final StreamStats mStats;
+    private final WriteCoalescer mCoalescer;
+    private final boolean mUseAggregateMessages;
+    private final ArrayDeque<PacedMessage> mPacedMessages = new ArrayDeque<PacedMessage>();
+    private final ReconnectFilter mReconnectFilter = new ReconnectFilter();
+    private Pacer mPacer;
+    private long mPacedBytes;
+    // Read by abort() on another thread
+    private volatile RtmpPublisher mPublisher;
+    private volatile boolean mIsAborted;
+    private long mLastConnectTime;
+    private boolean mHasConnectAttempt;
+    // Held back frames were lost while flushing, the next write reports it
+    private boolean mIsWriteErrorPending;
+
+    /**
+     * @param windowMs 0 writes every frame on its own
+     */
+    public RtmpPublishSink(String url, Clock clock, StreamStats stats, long windowMs, int windowBytes, boolean useAggregateMessages) {
+        mUrl = RtmpUrl.parse(url);
+        mClock = clock;
+        mStats = stats;
+        mCoalescer = windowMs > 0 ? new WriteCoalescer(clock, windowMs, windowBytes) : null;
+        mUseAggregateMessages = useAggregateMessages;
+    }
+
+    private static final class PacedMessage {
+        final byte[] body;
+        final int timestamp;
+        final long queueTime;
+        int offset;
+
+        PacedMessage(byte[] body, int timestamp, long queueTime) {
+            this.body = body;
+            this.timestamp = timestamp;
+            this.queueTime = queueTime;
+        }
+    }
+
+    /**
+     * Pace video from now on, call it before the first write.
+     */
+    public void setPacer(Pacer pacer) {
+        mPacer = pacer;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        mReconnectFilter.remember(frame);
+        if (mIsWriteErrorPending) {
+            mIsWriteErrorPending = false;
+            return -1;
+        }
+        if (!ensureConnected(frame.timestamp))
+            return -1;
+        int action = mReconnectFilter.filter(frame);
+        if (action == ReconnectFilter.SKIP)
+            return 0;
+        if (action == ReconnectFilter.DROP)
+            return -1;
+        try {
+            if (mPacer != null && frame.isVideo()) {
+                byte[] body = FlvMuxer.createTagBody(frame);
+                if (body != null) {
+                    mPacedMessages.addLast(new PacedMessage(body, frame.timestamp, mClock.elapsedMillis()));
+                    mPacedBytes += body.length;
+                }
+                sendPacedVideo();
+            } else if (mCoalescer == null) {
+                send(frame);
+                mPublisher.flush();
+            } else if (mCoalescer.add(frame)) {
+                sendBatch(mCoalescer.take());
+            }
+            mPublisher.processIncoming();
+            return frame.data.length;
+        } catch (IOException e) {
+            disconnect();
+            return -1;
+        }
+    }
+
+    @Override
+    public long flushDue() {
+        if (mPublisher == null)
+            return -1;
+        long millisUntilDue = -1;
+        try {
+            if (mCoalescer != null) {
+                millisUntilDue = mCoalescer.getMillisUntilDue();
+                if (millisUntilDue == 0) {
+                    sendBatch(mCoalescer.take());
+                    millisUntilDue = -1;
+                }
+            }
+            if (mPacer != null) {
+                long millisUntilSendable = sendPacedVideo();
+                if (millisUntilSendable >= 0 && (millisUntilDue < 0 || millisUntilSendable < millisUntilDue))
+                    millisUntilDue = millisUntilSendable;
+            }
+        } catch (IOException e) {
+            disconnect();
+            mIsWriteErrorPending = true;
+            return -1;
+        }
+        return millisUntilDue;
+    }
+
+    public boolean isConnected() {
+        return mPublisher != null;
+    }
+
+    /**
+     * Close the socket under a blocked write, no new connection is opened afterwards.
+     */
+    @Override
+    public void abort() {
+        mIsAborted = true;
+        RtmpPublisher publisher = mPublisher;
+        if (publisher != null)
+            publisher.close();
+    }
+
+    @Override
+    public void close() {
+        flushAll();
+        if (mPublisher != null) {
+            mPublisher.close();
+            mPublisher = null;
+        }
+    }
+
+    private void flushAll() {
+        if (mPublisher == null)
+            return;
+        try {
+            if (mCoalescer != null && !mCoalescer.isEmpty())
+                sendBatch(mCoalescer.take());
+            // No pacing at the end of the stream
+            while (!mPacedMessages.isEmpty()) {
+                PacedMessage message = mPacedMessages.pollFirst();
+                while (message.offset < message.body.length)
+                    message.offset = mPublisher.sendChunk(RtmpMessage.TYPE_VIDEO, message.timestamp, message.body, message.offset);
+            }
+            mPacedBytes = 0;
+            mPublisher.flush();
+        } catch (IOException e) {
+            disconnect();
+        }
+    }
+
+    private boolean ensureConnected(int timestamp) {
+        if (mPublisher != null)
+            return true;
+        if (mIsAborted)
+            return false;
+        long now = mClock.elapsedMillis();
+        if (mHasConnectAttempt && now - mLastConnectTime < RECONNECT_INTERVAL_MS)
+            return false;
+        mHasConnectAttempt = true;
+        mLastConnectTime = now;
+        RtmpPublisher publisher = new RtmpPublisher(mUrl, mClock, mStats);
+        try {
+            publisher.connect(CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            return false;
+        }
+        mPublisher = publisher;
+        try {
+            for (EncodedFrame config : mReconnectFilter.onConnected(timestamp))
+                send(config);
+            mPublisher.flush();
+        } catch (IOException e) {
+            disconnect();
+            return false;
+        }
+        return true;
+    }
+
+    private void disconnect() {
+        // Held back frames are lost, a spooling sink upstream replays the current GOP
+        if (mCoalescer != null)
+            mCoalescer.take();
+        mPacedMessages.clear();
+        mPacedBytes = 0;
+        mPublisher.close();
+        mPublisher = null;
+    }
+
+    private void sendBatch(List<EncodedFrame> frames) throws IOException {
+        if (mUseAggregateMessages && frames.size() > 1) {
+            ByteArrayOutputStream tags = new ByteArrayOutputStream();
+            for (EncodedFrame frame : frames) {
+                byte[] tag = FlvMuxer.createTag(frame);
+                if (tag != null)
+                    tags.write(tag, 0, tag.length);
+            }
+            byte[] payload = tags.toByteArray();
+            mPublisher.sendMessage(RtmpMessage.TYPE_AGGREGATE, frames.get(0).timestamp, payload);
+            if (mPacer != null)
+                mPacer.onSent(payload.length);
+        } else {
+            for (EncodedFrame frame : frames)
+                send(frame);
+        }
+        mPublisher.flush();
+    }
+
+    private void send(EncodedFrame frame) throws IOException {
+        byte[] body = FlvMuxer.createTagBody(frame);
+        if (body == null)
+            return;
+        mPublisher.sendMessage(FlvMuxer.getTagType(frame), frame.timestamp, body);
+        if (mPacer != null)
+            mPacer.onSent(body.length);
+    }
+
+    /**
+     * Send the chunks of queued video the pacer allows.
+     *
+     * @return milliseconds until the next chunk may be sent, or -1 if no video is queued
+     */
+    private long sendPacedVideo() throws IOException {
+        long millisUntilSendable = -1;
+        boolean hasSent = false;
+        while (!mPacedMessages.isEmpty()) {
+            PacedMessage message = mPacedMessages.peekFirst();
+            int chunkBytes = Math.min(RtmpPublisher.CHUNK_SIZE, message.body.length - message.offset);
+            millisUntilSendable = mPacer.getMillisUntilSendable(chunkBytes, mPacedBytes);
+            if (millisUntilSendable > 0)
+                break;
+            int offset = mPublisher.sendChunk(RtmpMessage.TYPE_VIDEO, message.timestamp, message.body, message.offset);
+            mPacer.onSent(offset - message.offset);
+            mPacedBytes -= offset - message.offset;
+            message.offset = offset;
+            hasSent = true;
+            if (offset >= message.body.length) {
+                mPacedMessages.pollFirst();
+                mStats.onFramePaced(mClock.elapsedMillis() - message.queueTime);
+            }
+            millisUntilSendable = -1;
+        }
+        if (hasSent)
+            mPublisher.flush();
+        return millisUntilSendable;
+    }
+}
@@ -0,0 +1,146 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Sends the backlog of a {@link FrameSpool} to its own sink, e.g. a second stream key or a file,
+ * as fast as that sink accepts it. A frame leaves the spool only once it was written.
+ */
+public class SpoolUploader {
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    /**
+     * Opens the sink the backlog is sent to.
+     */
+    public interface SinkFactory {
+        /**
+         * @return the opened sink, or null if it can not be opened right now
+         */
+        FrameSink open();
+    }
+
+    private final FrameSpool mSpool;
+    private final SinkFactory mSinkFactory;
+    private final StreamStats mStats;
+    private Thread mUploadThread;
+    // Sink of the running upload, aborted by stop()
+    private volatile FrameSink mSink;
+    private volatile boolean mQuit;
+
+    public SpoolUploader(FrameSpool spool, SinkFactory sinkFactory, StreamStats stats) {
+        mSpool = spool;
+        mSinkFactory = sinkFactory;
+        mStats = stats;
+    }
+
+    /**
+     * Start uploading unless an upload is already running.
+     */
+    public synchronized void start() {
+        if (mQuit || isUploading() || mSpool.isEmpty())
+            return;
+        mUploadThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                upload();
+            }
+        }, "SpoolUploader");
+        mUploadThread.setDaemon(true);
+        mUploadThread.start();
+    }
+
+    public synchronized boolean isUploading() {
+        return mUploadThread != null && mUploadThread.isAlive();
+    }
+
+    /**
+     * @return false if the upload stopped before the spool was empty
+     */
+    boolean upload() {
+        EncodedFrame videoConfig = null;
+        EncodedFrame audioConfig = null;
+        for (EncodedFrame config : mSpool.getHeadConfigs()) {
+            if (config.isVideo())
+                videoConfig = config;
+            else
+                audioConfig = config;
+        }
+        FrameSink sink = open(videoConfig, audioConfig);
+        if (sink == null)
+            return false;
+        try {
+            int lastVideoTimestamp = Integer.MIN_VALUE;
+            int lastAudioTimestamp = Integer.MIN_VALUE;
+            while (!mQuit) {
+                FrameSpool.Entry entry = mSpool.peek();
+                if (entry == null)
+                    return true;
+                EncodedFrame frame = entry.frame;
+                if (frame.isCodecConfig()) {
+                    if (frame.isVideo())
+                        videoConfig = frame;
+                    else
+                        audioConfig = frame;
+                } else if (frame.timestamp < (frame.isVideo() ? lastVideoTimestamp : lastAudioTimestamp)) {
+                    // Backlog of another session, its timestamps start over so it needs a publish of its own
+                    sink.close();
+                    sink = open(videoConfig, audioConfig);
+                    if (sink == null)
+                        return false;
+                    lastVideoTimestamp = Integer.MIN_VALUE;
+                    lastAudioTimestamp = Integer.MIN_VALUE;
+                }
+                if (sink.write(frame) < 0)
+                    return false;
+                if (!frame.isCodecConfig()) {
+                    if (frame.isVideo())
+                        lastVideoTimestamp = frame.timestamp;
+                    else
+                        lastAudioTimestamp = frame.timestamp;
+                }
+                mSpool.remove(entry.sequence);
+                mStats.onFrameUploaded(entry.frame);
+            }
+            return false;
+        } finally {
+            mSink = null;
+            if (sink != null)
+                sink.close();
+        }
+    }
+
+    /**
+     * @return a new sink which already got the codec config, or null if it can not be opened
+     */
+    private FrameSink open(EncodedFrame videoConfig, EncodedFrame audioConfig) {
+        FrameSink sink = mSinkFactory.open();
+        if (sink == null)
+            return null;
+        if ((videoConfig != null && sink.write(videoConfig) < 0) || (audioConfig != null && sink.write(audioConfig) < 0)) {
+            sink.close();
+            return null;
+        }
+        mSink = sink;
+        return sink;
+    }
+
+    /**
+     * Abort the sink of a running upload, then wait for it at most {@link #STOP_TIMEOUT_MS}.
+     * What was not written stays in the spool.
+     */
+    public void stop() {
+        Thread uploadThread;
+        synchronized (this) {
+            mQuit = true;
+            uploadThread = mUploadThread;
+        }
+        if (uploadThread == null)
+            return;
+        FrameSink sink = mSink;
+        if (sink instanceof AbortableFrameSink)
+            ((AbortableFrameSink) sink).abort();
+        try {
+            uploadThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
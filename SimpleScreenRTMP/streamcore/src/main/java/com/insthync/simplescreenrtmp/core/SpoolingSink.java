@@ -0,0 +1,153 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store and forward in front of a live sink. When a write fails, everything from the last key
+ * frame on goes into the {@link FrameSpool} until the live sink takes a key frame again.
+ * The backlog is then handed to the {@link SpoolUploader}, while the live stream carries on.
+ * <p>
+ * The live sink is expected to reconnect by itself when it is written to again. Put in front of an
+ * {@link AsyncFrameSink} which reports write errors, frames still queued when the sender fails are
+ * spooled too. A frame its full queue drops is congestion, not an outage, and is not spooled.
+ * Going live again only queues the key frame, so frames keep being spooled as well until the sender
+ * delivered one of them. Only then the backlog is uploaded.
+ */
+public class SpoolingSink extends FrameStage {
+    // Bound for the remembered GOP while no key frame arrives, e.g. a stalled video encoder
+    private static final int MAX_GOP_FRAMES = 1024;
+
+    private final FrameSpool mSpool;
+    private final SpoolUploader mUploader;
+    // Frames written to an asynchronous live sink wait in its queue before they are sent
+    private final AsyncFrameSink mSendSink;
+    private EncodedFrame mVideoConfig;
+    private EncodedFrame mAudioConfig;
+    // Frames written live from the key frame before the oldest unsent one, the server may not have all of them
+    private final List<EncodedFrame> mCurrentGop = new ArrayList<EncodedFrame>();
+    private boolean mIsSpooling;
+    // Live again as far as the queue knows, waiting for the sender to deliver
+    private boolean mIsResuming;
+    private long mResumeDeliveredCount;
+
+    public SpoolingSink(FrameSink downstream, FrameSpool spool, SpoolUploader uploader) {
+        super(downstream);
+        mSpool = spool;
+        mUploader = uploader;
+        mSendSink = downstream instanceof AsyncFrameSink ? (AsyncFrameSink) downstream : null;
+    }
+
+    @Override
+    public int write(EncodedFrame frame) {
+        if (frame.isCodecConfig()) {
+            if (frame.isVideo())
+                mVideoConfig = frame;
+            else
+                mAudioConfig = frame;
+        }
+
+        if (mIsSpooling) {
+            if (mIsResuming && mSendSink.getDeliveredCount() > mResumeDeliveredCount) {
+                // The connection is back, what was queued since the key frame is in the spool already
+                mIsSpooling = false;
+                mIsResuming = false;
+            } else {
+                if (mIsResuming && mSendSink.getQueue().isFailed())
+                    mIsResuming = false;
+                if (!mIsResuming && isVideoKeyFrame(frame)) {
+                    if (resume(frame))
+                        return 0;
+                } else if (mIsResuming) {
+                    // A full queue may drop it, the spool keeps it anyway
+                    mDownstream.write(frame);
+                }
+                mSpool.append(frame);
+                return 0;
+            }
+        }
+
+        int result = mDownstream.write(frame);
+        if (result >= 0) {
+            remember(frame);
+            if (!mSpool.isEmpty())
+                mUploader.start();
+            return result;
+        }
+        if (mSendSink != null && !mSendSink.getQueue().isFailed())
+            return result;
+
+        // Connection lost, keep the stream decodable from the last key frame
+        mIsSpooling = true;
+        if (mVideoConfig != null)
+            mSpool.append(mVideoConfig);
+        if (mAudioConfig != null)
+            mSpool.append(mAudioConfig);
+        for (EncodedFrame sentFrame : mCurrentGop)
+            mSpool.append(sentFrame);
+        mCurrentGop.clear();
+        if (!frame.isCodecConfig())
+            mSpool.append(frame);
+        return 0;
+    }
+
+    public boolean isSpooling() {
+        return mIsSpooling;
+    }
+
+    /**
+     * Try to go live again with this key frame, the new connection needs the headers first.
+     *
+     * @return true if the key frame went live, false if it still has to be spooled
+     */
+    private boolean resume(EncodedFrame keyFrame) {
+        if (mSendSink != null) {
+            mResumeDeliveredCount = mSendSink.getDeliveredCount();
+            mSendSink.getQueue().recover();
+        }
+        if (mVideoConfig != null && mDownstream.write(mVideoConfig) < 0)
+            return false;
+        if (mAudioConfig != null && mDownstream.write(mAudioConfig) < 0)
+            return false;
+        if (mDownstream.write(keyFrame) < 0)
+            return false;
+        if (mSendSink != null) {
+            mIsResuming = true;
+            return false;
+        }
+        mIsSpooling = false;
+        remember(keyFrame);
+        mUploader.start();
+        return true;
+    }
+
+    private void remember(EncodedFrame frame) {
+        if (frame.isCodecConfig())
+            return;
+        mCurrentGop.add(frame);
+        // Queued frames and the one being sent may still fail
+        int unsent = mSendSink != null ? mSendSink.getQueue().size() + 1 : 0;
+        int oldestUnsent = Math.max(0, mCurrentGop.size() - 1 - unsent);
+        int start = 0;
+        for (int i = oldestUnsent; i > 0; i--) {
+            if (isVideoKeyFrame(mCurrentGop.get(i))) {
+                start = i;
+                break;
+            }
+        }
+        start = Math.max(start, mCurrentGop.size() - MAX_GOP_FRAMES - unsent);
+        if (start > 0)
+            mCurrentGop.subList(0, start).clear();
+    }
+
+    private static boolean isVideoKeyFrame(EncodedFrame frame) {
+        return frame.isVideo() && frame.isKeyFrame() && !frame.isCodecConfig();
+    }
+
+    @Override
+    public void close() {
+        mUploader.stop();
+        mSpool.close();
+        mDownstream.close();
+    }
+}
@@ -0,0 +1,208 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a streaming session, safe to update from any thread.
+ */
+public class StreamStats {
+    private final AtomicLong mVideoFrames = new AtomicLong();
+    private final AtomicLong mAudioFrames = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mWriteErrors = new AtomicLong();
+    private final AtomicLong mEncoderRecoveries = new AtomicLong();
+    private final AtomicLong mSpooledFrames = new AtomicLong();
+    private final AtomicLong mEvictedFrames = new AtomicLong();
+    private final AtomicLong mUploadedFrames = new AtomicLong();
+    private final AtomicLong mHeldBackFrames = new AtomicLong();
+    private final AtomicLong mSocketWrites = new AtomicLong();
+    private final AtomicLong mPacedFrames = new AtomicLong();
+    private final AtomicLong mPacingDelayMillis = new AtomicLong();
+    private final AtomicLong mMaxPacingDelayMillis = new AtomicLong();
+    private final AtomicLong mSocketBytes = new AtomicLong();
+    private final AtomicLong mMaxKeyFrameSkewMillis = new AtomicLong();
+    private final Clock mClock;
+    private final long mStartTime;
+    private volatile BandwidthProbe.Result mProbeResult;
+
+    public StreamStats() {
+        this(Clock.SYSTEM);
+    }
+
+    public StreamStats(Clock clock) {
+        mClock = clock;
+        mStartTime = clock.elapsedMillis();
+    }
+
+    public void onFrameWritten(EncodedFrame frame) {
+        if (frame.isVideo())
+            mVideoFrames.incrementAndGet();
+        else
+            mAudioFrames.incrementAndGet();
+        mBytes.addAndGet(frame.data.length);
+    }
+
+    /**
+     * Distance between the key frames of two renditions which were asked for one together.
+     */
+    public void onKeyFrameSkew(long skewMillis) {
+        long max;
+        do {
+            max = mMaxKeyFrameSkewMillis.get();
+        } while (skewMillis > max && !mMaxKeyFrameSkewMillis.compareAndSet(max, skewMillis));
+    }
+
+    public void onFrameDropped(EncodedFrame frame) {
+        mDroppedFrames.incrementAndGet();
+    }
+
+    public void onWriteError(EncodedFrame frame) {
+        mWriteErrors.incrementAndGet();
+    }
+
+    public void onEncoderRecovery() {
+        mEncoderRecoveries.incrementAndGet();
+    }
+
+    public void onFrameSpooled(EncodedFrame frame) {
+        mSpooledFrames.incrementAndGet();
+    }
+
+    public void onFrameEvicted() {
+        mEvictedFrames.incrementAndGet();
+    }
+
+    public void onFrameUploaded(EncodedFrame frame) {
+        mUploadedFrames.incrementAndGet();
+    }
+
+    public void onFrameHeldBack(EncodedFrame frame) {
+        mHeldBackFrames.incrementAndGet();
+    }
+
+    public void onSocketWrite(int bytes) {
+        mSocketWrites.incrementAndGet();
+        mSocketBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param delayMillis time a video frame waited in the pacer until its last byte was sent
+     */
+    public void onFramePaced(long delayMillis) {
+        mPacedFrames.incrementAndGet();
+        mPacingDelayMillis.addAndGet(delayMillis);
+        long max;
+        do {
+            max = mMaxPacingDelayMillis.get();
+        } while (delayMillis > max && !mMaxPacingDelayMillis.compareAndSet(max, delayMillis));
+    }
+
+    public void onBandwidthProbe(BandwidthProbe.Result result) {
+        mProbeResult = result;
+    }
+
+    public long getVideoFrames() {
+        return mVideoFrames.get();
+    }
+
+    public long getAudioFrames() {
+        return mAudioFrames.get();
+    }
+
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    public long getWriteErrors() {
+        return mWriteErrors.get();
+    }
+
+    public long getEncoderRecoveries() {
+        return mEncoderRecoveries.get();
+    }
+
+    public long getSpooledFrames() {
+        return mSpooledFrames.get();
+    }
+
+    public long getEvictedFrames() {
+        return mEvictedFrames.get();
+    }
+
+    public long getUploadedFrames() {
+        return mUploadedFrames.get();
+    }
+
+    public long getHeldBackFrames() {
+        return mHeldBackFrames.get();
+    }
+
+    public long getSocketWrites() {
+        return mSocketWrites.get();
+    }
+
+    public long getSocketBytes() {
+        return mSocketBytes.get();
+    }
+
+    public double getSocketWritesPerSecond() {
+        long elapsedMs = mClock.elapsedMillis() - mStartTime;
+        return elapsedMs > 0 ? getSocketWrites() * 1000.0 / elapsedMs : 0;
+    }
+
+    public long getAverageBytesPerWrite() {
+        long writes = getSocketWrites();
+        return writes > 0 ? getSocketBytes() / writes : 0;
+    }
+
+    public long getPacedFrames() {
+        return mPacedFrames.get();
+    }
+
+    public long getAveragePacingDelayMillis() {
+        long frames = getPacedFrames();
+        return frames > 0 ? mPacingDelayMillis.get() / frames : 0;
+    }
+
+    public long getMaxPacingDelayMillis() {
+        return mMaxPacingDelayMillis.get();
+    }
+
+    public long getMaxKeyFrameSkewMillis() {
+        return mMaxKeyFrameSkewMillis.get();
+    }
+
+    /**
+     * @return result of the pre-flight probe, null if the session started without one
+     */
+    public BandwidthProbe.Result getProbeResult() {
+        return mProbeResult;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamStats{videoFrames=" + getVideoFrames() +
+                ", audioFrames=" + getAudioFrames() +
+                ", bytes=" + getBytes() +
+                ", droppedFrames=" + getDroppedFrames() +
+                ", writeErrors=" + getWriteErrors() +
+                ", encoderRecoveries=" + getEncoderRecoveries() +
+                ", spooledFrames=" + getSpooledFrames() +
+                ", evictedFrames=" + getEvictedFrames() +
+                ", uploadedFrames=" + getUploadedFrames() +
+                ", heldBackFrames=" + getHeldBackFrames() +
+                ", socketWrites=" + getSocketWrites() +
+                ", socketWritesPerSecond=" + Math.round(getSocketWritesPerSecond()) +
+                ", averageBytesPerWrite=" + getAverageBytesPerWrite() +
+                ", pacedFrames=" + getPacedFrames() +
+                ", averagePacingDelayMillis=" + getAveragePacingDelayMillis() +
+                ", maxPacingDelayMillis=" + getMaxPacingDelayMillis() +
+                ", maxKeyFrameSkewMillis=" + getMaxKeyFrameSkewMillis() +
+                ", probeResult=" + getProbeResult() + "}";
+    }
+}
@@ -0,0 +1,33 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Shared zero point of all tracks, converts encoder presentation times into stream milliseconds.
+ */
+public class TimestampBase {
+    private long mStartTimeUs = -1;
+    private long mStartWallClockMs;
+
+    /**
+     * @param presentationTimeUs on the {@link System#nanoTime()} time base, like the frames of a virtual display
+     */
+    public synchronized int toMillis(long presentationTimeUs) {
+        if (mStartTimeUs < 0) {
+            mStartTimeUs = presentationTimeUs;
+            mStartWallClockMs = System.currentTimeMillis() - (System.nanoTime() / 1000 - presentationTimeUs) / 1000;
+        }
+        long timestamp = (presentationTimeUs - mStartTimeUs) / 1000;
+        // A track which starts a bit later than the first one must not go below zero
+        return timestamp > 0 ? (int) timestamp : 0;
+    }
+
+    /**
+     * @return wall clock time at which a frame of the given stream timestamp was captured
+     */
+    public synchronized long toWallClockMillis(int timestamp) {
+        return mStartWallClockMs + timestamp;
+    }
+
+    public synchronized boolean isStarted() {
+        return mStartTimeUs >= 0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.insthync.simplescreenrtmp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects frames into batches that are written with one socket write instead of one write per frame.
+ * A batch is due once its oldest frame waited the window or it holds the window in bytes.
+ * Codec config and video key frames are urgent, they end the batch so a viewer joining
+ * the stream never waits for them.
+ */
+public class WriteCoalescer {
+    private final Clock mClock;
+    private final long mWindowMs;
+    private final int mWindowBytes;
+    private final List<EncodedFrame> mPending = new ArrayList<EncodedFrame>();
+    private int mPendingBytes;
+    private long mFirstFrameTime;
+
+    public WriteCoalescer(Clock clock, long windowMs, int windowBytes) {
+        mClock = clock;
+        mWindowMs = windowMs;
+        mWindowBytes = windowBytes;
+    }
+
+    public static boolean isUrgent(EncodedFrame frame) {
+        return frame.isCodecConfig() || (frame.isVideo() && frame.isKeyFrame());
+    }
+
+    /**
+     * @return true if the batch is due and should be taken now
+     */
+    public boolean add(EncodedFrame frame) {
+        if (mPending.isEmpty())
+            mFirstFrameTime = mClock.elapsedMillis();
+        mPending.add(frame);
+        mPendingBytes += frame.data.length;
+        return isUrgent(frame) || mPendingBytes >= mWindowBytes || getMillisUntilDue() == 0;
+    }
+
+    /**
+     * @return milliseconds until the batch is due, or -1 if there is no batch
+     */
+    public long getMillisUntilDue() {
+        if (mPending.isEmpty())
+            return -1;
+        return Math.max(0, mFirstFrameTime + mWindowMs - mClock.elapsedMillis());
+    }
+
+    public boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    public List<EncodedFrame> take() {
+        List<EncodedFrame> frames = new ArrayList<EncodedFrame>(mPending);
+        mPending.clear();
+        mPendingBytes = 0;
+        return frames;
+    }
+}
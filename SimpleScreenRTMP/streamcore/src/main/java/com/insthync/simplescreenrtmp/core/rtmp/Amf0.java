@@ -0,0 +1,168 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AMF0 values of RTMP commands and metadata. Numbers are Double, objects and ECMA arrays are Map,
+ * strict arrays are List.
+ */
+public final class Amf0 {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TYPE_NUMBER = 0x00;
+    private static final int TYPE_BOOLEAN = 0x01;
+    private static final int TYPE_STRING = 0x02;
+    private static final int TYPE_OBJECT = 0x03;
+    private static final int TYPE_NULL = 0x05;
+    private static final int TYPE_UNDEFINED = 0x06;
+    private static final int TYPE_ECMA_ARRAY = 0x08;
+    private static final int TYPE_OBJECT_END = 0x09;
+    private static final int TYPE_STRICT_ARRAY = 0x0A;
+    private static final int TYPE_LONG_STRING = 0x0C;
+
+    private Amf0() {
+    }
+
+    public static byte[] encode(Object... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object value : values)
+            write(out, value);
+        return out.toByteArray();
+    }
+
+    public static List<Object> decode(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        List<Object> values = new ArrayList<Object>();
+        try {
+            while (buffer.hasRemaining())
+                values.add(read(buffer));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed AMF0: " + e);
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(ByteArrayOutputStream out, Object value) {
+        if (value == null) {
+            out.write(TYPE_NULL);
+        } else if (value instanceof Number) {
+            out.write(TYPE_NUMBER);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int) (bits >>> shift));
+        } else if (value instanceof Boolean) {
+            out.write(TYPE_BOOLEAN);
+            out.write((Boolean) value ? 1 : 0);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(UTF_8);
+            if (bytes.length > 0xFFFF) {
+                out.write(TYPE_LONG_STRING);
+                writeInt32(out, bytes.length);
+            } else {
+                out.write(TYPE_STRING);
+                writeInt16(out, bytes.length);
+            }
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof Map) {
+            out.write(TYPE_OBJECT);
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                writeKey(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+            writeKey(out, "");
+            out.write(TYPE_OBJECT_END);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            out.write(TYPE_STRICT_ARRAY);
+            writeInt32(out, list.size());
+            for (Object item : list)
+                write(out, item);
+        } else {
+            throw new IllegalArgumentException("Unsupported AMF0 value: " + value.getClass());
+        }
+    }
+
+    private static Object read(ByteBuffer buffer) {
+        int type = buffer.get() & 0xFF;
+        switch (type) {
+            case TYPE_NUMBER:
+                return buffer.getDouble();
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_STRING:
+                return readString(buffer, buffer.getShort() & 0xFFFF);
+            case TYPE_LONG_STRING:
+                return readString(buffer, buffer.getInt());
+            case TYPE_OBJECT:
+                return readProperties(buffer);
+            case TYPE_ECMA_ARRAY:
+                buffer.getInt();
+                return readProperties(buffer);
+            case TYPE_STRICT_ARRAY: {
+                int count = buffer.getInt();
+                List<Object> list = new ArrayList<Object>();
+                for (int i = 0; i < count; i++)
+                    list.add(read(buffer));
+                return list;
+            }
+            case TYPE_NULL:
+            case TYPE_UNDEFINED:
+                return null;
+            default:
+                throw new IllegalArgumentException("Unsupported AMF0 type: " + type);
+        }
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer buffer) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        while (true) {
+            String key = readString(buffer, buffer.getShort() & 0xFFFF);
+            if (key.isEmpty() && buffer.get(buffer.position()) == TYPE_OBJECT_END) {
+                buffer.get();
+                return properties;
+            }
+            properties.put(key, read(buffer));
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeKey(ByteArrayOutputStream out, String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        writeInt16(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeInt16(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt32(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Shorthand to build AMF0 objects, keys and values alternate.
+     */
+    public static Map<String, Object> object(Object... keysAndValues) {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2)
+            object.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return object;
+    }
+}
@@ -0,0 +1,115 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Joins RTMP chunks of all chunk streams back into messages.
+ */
+final class ChunkReader {
+    private static final int MAX_TIMESTAMP = 0xFFFFFF;
+
+    private static final class ChunkStream {
+        int timestamp;
+        int timestampDelta;
+        int length;
+        int type;
+        int streamId;
+        boolean isExtended;
+        byte[] payload;
+        int received;
+    }
+
+    private final DataInputStream mInputStream;
+    private final Map<Integer, ChunkStream> mChunkStreams = new HashMap<Integer, ChunkStream>();
+    private int mChunkSize = ChunkWriter.DEFAULT_CHUNK_SIZE;
+    private long mBytesRead;
+
+    ChunkReader(InputStream inputStream) {
+        mInputStream = new DataInputStream(inputStream);
+    }
+
+    void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    long getBytesRead() {
+        return mBytesRead;
+    }
+
+    RtmpMessage read() throws IOException {
+        while (true) {
+            int basicHeader = readByte();
+            int format = basicHeader >>> 6;
+            int chunkStreamId = basicHeader & 0x3F;
+            if (chunkStreamId == 0)
+                chunkStreamId = 64 + readByte();
+            else if (chunkStreamId == 1)
+                chunkStreamId = 64 + readByte() + readByte() * 256;
+
+            ChunkStream stream = mChunkStreams.get(chunkStreamId);
+            if (stream == null) {
+                if (format != 0)
+                    throw new IOException("Chunk stream " + chunkStreamId + " starts without a type 0 header");
+                stream = new ChunkStream();
+                mChunkStreams.put(chunkStreamId, stream);
+            }
+
+            boolean isNewMessage = stream.payload == null;
+            if (format <= 2) {
+                int timestamp = readInt(3);
+                if (format <= 1) {
+                    stream.length = readInt(3);
+                    stream.type = readByte();
+                }
+                if (format == 0)
+                    stream.streamId = Integer.reverseBytes(readInt(4));
+                stream.isExtended = timestamp == MAX_TIMESTAMP;
+                if (stream.isExtended)
+                    timestamp = readInt(4);
+                if (format == 0) {
+                    stream.timestamp = timestamp;
+                    stream.timestampDelta = 0;
+                } else {
+                    stream.timestampDelta = timestamp;
+                    stream.timestamp += timestamp;
+                }
+                isNewMessage = true;
+            } else {
+                if (stream.isExtended)
+                    readInt(4);
+                if (isNewMessage)
+                    stream.timestamp += stream.timestampDelta;
+            }
+
+            if (isNewMessage) {
+                stream.payload = new byte[stream.length];
+                stream.received = 0;
+            }
+            int size = Math.min(mChunkSize, stream.length - stream.received);
+            mInputStream.readFully(stream.payload, stream.received, size);
+            mBytesRead += size;
+            stream.received += size;
+            if (stream.received >= stream.length) {
+                RtmpMessage message = new RtmpMessage(stream.type, stream.streamId, stream.timestamp, stream.payload);
+                stream.payload = null;
+                return message;
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        mBytesRead++;
+        return mInputStream.readUnsignedByte();
+    }
+
+    private int readInt(int bytes) throws IOException {
+        int value = 0;
+        for (int i = 0; i < bytes; i++)
+            value = value << 8 | readByte();
+        return value;
+    }
+}
@@ -0,0 +1,80 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Splits messages into RTMP chunks. Every message starts with a type 0 chunk header.
+ */
+final class ChunkWriter {
+    static final int DEFAULT_CHUNK_SIZE = 128;
+    private static final int MAX_TIMESTAMP = 0xFFFFFF;
+
+    private final OutputStream mOutputStream;
+    private final byte[] mHeader = new byte[1 + 11 + 4];
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+    ChunkWriter(OutputStream outputStream) {
+        mOutputStream = outputStream;
+    }
+
+    void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    void write(int chunkStreamId, RtmpMessage message) throws IOException {
+        int offset = 0;
+        do {
+            offset = writeChunk(chunkStreamId, message, offset);
+        } while (offset < message.payload.length);
+    }
+
+    /**
+     * Write the one chunk of the message starting at the payload offset. Chunks of other chunk
+     * streams may go out in between.
+     *
+     * @return payload offset of the next chunk
+     */
+    int writeChunk(int chunkStreamId, RtmpMessage message, int offset) throws IOException {
+        boolean isExtended = (message.timestamp & 0xFFFFFFFFL) >= MAX_TIMESTAMP;
+        int length = message.payload.length;
+        int headerLength;
+        if (offset == 0) {
+            mHeader[0] = (byte) chunkStreamId;
+            int timestamp = isExtended ? MAX_TIMESTAMP : message.timestamp;
+            mHeader[1] = (byte) (timestamp >>> 16);
+            mHeader[2] = (byte) (timestamp >>> 8);
+            mHeader[3] = (byte) timestamp;
+            mHeader[4] = (byte) (length >>> 16);
+            mHeader[5] = (byte) (length >>> 8);
+            mHeader[6] = (byte) length;
+            mHeader[7] = (byte) message.type;
+            // Message stream id is little endian
+            mHeader[8] = (byte) message.streamId;
+            mHeader[9] = (byte) (message.streamId >>> 8);
+            mHeader[10] = (byte) (message.streamId >>> 16);
+            mHeader[11] = (byte) (message.streamId >>> 24);
+            headerLength = 12;
+        } else {
+            // Type 3 continuation chunk
+            mHeader[0] = (byte) (0xC0 | chunkStreamId);
+            headerLength = 1;
+        }
+        if (isExtended) {
+            writeExtendedTimestamp(mHeader, headerLength, message.timestamp);
+            headerLength += 4;
+        }
+        mOutputStream.write(mHeader, 0, headerLength);
+
+        int size = Math.min(mChunkSize, length - offset);
+        mOutputStream.write(message.payload, offset, size);
+        return offset + size;
+    }
+
+    private static void writeExtendedTimestamp(byte[] buffer, int offset, int timestamp) {
+        buffer[offset] = (byte) (timestamp >>> 24);
+        buffer[offset + 1] = (byte) (timestamp >>> 16);
+        buffer[offset + 2] = (byte) (timestamp >>> 8);
+        buffer[offset + 3] = (byte) timestamp;
+    }
+}
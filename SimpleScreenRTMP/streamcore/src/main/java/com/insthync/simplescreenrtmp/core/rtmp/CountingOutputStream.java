@@ -0,0 +1,31 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import com.insthync.simplescreenrtmp.core.StreamStats;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the writes reaching the socket, each one is a send system call.
+ */
+final class CountingOutputStream extends FilterOutputStream {
+    private final StreamStats mStats;
+
+    CountingOutputStream(OutputStream out, StreamStats stats) {
+        super(out);
+        mStats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        mStats.onSocketWrite(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        mStats.onSocketWrite(len);
+    }
+}
@@ -0,0 +1,77 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import com.insthync.simplescreenrtmp.core.Clock;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Closes the socket when a write makes no progress for the timeout, e.g. when the network went
+ * away without a reset. The blocked write fails then instead of hanging until the kernel gives up,
+ * a socket timeout only applies to reads. Writes are split into slices, so a large write on a slow
+ * but working uplink is not mistaken for a stall.
+ */
+final class DeadlineOutputStream extends FilterOutputStream {
+    private static final int SLICE_SIZE = 16 * 1024;
+    private static final long MIN_CHECK_INTERVAL_MS = 10;
+
+    private final Socket mSocket;
+    private final Clock mClock;
+    private final long mTimeoutMs;
+    private volatile boolean mIsWriting;
+    private volatile long mSliceStartTime;
+
+    DeadlineOutputStream(Socket socket, OutputStream out, Clock clock, long timeoutMs) {
+        super(out);
+        mSocket = socket;
+        mClock = clock;
+        mTimeoutMs = timeoutMs;
+        Thread watchdogThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "RtmpPublisher-deadline");
+        watchdogThread.setDaemon(true);
+        watchdogThread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        mIsWriting = true;
+        try {
+            while (len > 0) {
+                int slice = Math.min(len, SLICE_SIZE);
+                mSliceStartTime = mClock.elapsedMillis();
+                out.write(b, off, slice);
+                off += slice;
+                len -= slice;
+            }
+        } finally {
+            mIsWriting = false;
+        }
+    }
+
+    private void watch() {
+        long checkIntervalMs = Math.max(MIN_CHECK_INTERVAL_MS, mTimeoutMs / 4);
+        try {
+            while (!mSocket.isClosed()) {
+                Thread.sleep(checkIntervalMs);
+                if (mIsWriting && mClock.elapsedMillis() - mSliceStartTime >= mTimeoutMs) {
+                    mSocket.close();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+        }
+    }
+}
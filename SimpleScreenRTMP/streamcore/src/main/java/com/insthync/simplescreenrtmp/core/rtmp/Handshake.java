@@ -0,0 +1,68 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * The simple (unsigned) RTMP handshake, accepted by the common ingest servers for publishing.
+ */
+final class Handshake {
+    private static final int VERSION = 3;
+    private static final int PACKET_SIZE = 1536;
+
+    private Handshake() {
+    }
+
+    static void client(InputStream inputStream, OutputStream outputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] c0c1 = new byte[1 + PACKET_SIZE];
+        c0c1[0] = VERSION;
+        fillPacket(c0c1, 1);
+        outputStream.write(c0c1);
+        outputStream.flush();
+
+        checkVersion(in.readUnsignedByte());
+        byte[] s1 = new byte[PACKET_SIZE];
+        in.readFully(s1);
+        // C2 echoes S1
+        outputStream.write(s1);
+        outputStream.flush();
+        in.readFully(new byte[PACKET_SIZE]);
+    }
+
+    static void server(InputStream inputStream, OutputStream outputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        checkVersion(in.readUnsignedByte());
+        byte[] c1 = new byte[PACKET_SIZE];
+        in.readFully(c1);
+
+        byte[] s0s1 = new byte[1 + PACKET_SIZE];
+        s0s1[0] = VERSION;
+        fillPacket(s0s1, 1);
+        outputStream.write(s0s1);
+        // S2 echoes C1
+        outputStream.write(c1);
+        outputStream.flush();
+        in.readFully(new byte[PACKET_SIZE]);
+    }
+
+    private static void fillPacket(byte[] packet, int offset) {
+        int time = (int) (System.currentTimeMillis() / 1000);
+        packet[offset] = (byte) (time >>> 24);
+        packet[offset + 1] = (byte) (time >>> 16);
+        packet[offset + 2] = (byte) (time >>> 8);
+        packet[offset + 3] = (byte) time;
+        // Four zero bytes then random data
+        byte[] random = new byte[PACKET_SIZE - 8];
+        new Random().nextBytes(random);
+        System.arraycopy(random, 0, packet, offset + 8, random.length);
+    }
+
+    private static void checkVersion(int version) throws IOException {
+        if (version != VERSION)
+            throw new IOException("Unsupported RTMP version: " + version);
+    }
+}
@@ -0,0 +1,64 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One RTMP message, before it is split into chunks or after its chunks were joined.
+ */
+public final class RtmpMessage {
+    public static final int TYPE_SET_CHUNK_SIZE = 1;
+    public static final int TYPE_ABORT = 2;
+    public static final int TYPE_ACKNOWLEDGEMENT = 3;
+    public static final int TYPE_USER_CONTROL = 4;
+    public static final int TYPE_WINDOW_ACK_SIZE = 5;
+    public static final int TYPE_SET_PEER_BANDWIDTH = 6;
+    public static final int TYPE_AUDIO = 8;
+    public static final int TYPE_VIDEO = 9;
+    public static final int TYPE_DATA_AMF0 = 18;
+    public static final int TYPE_COMMAND_AMF0 = 20;
+    public static final int TYPE_AGGREGATE = 22;
+
+    public final int type;
+    public final int streamId;
+    public final int timestamp;
+    public final byte[] payload;
+
+    public RtmpMessage(int type, int streamId, int timestamp, byte[] payload) {
+        this.type = type;
+        this.streamId = streamId;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the sub messages of an aggregate message, which is a sequence of FLV tags
+     */
+    public List<RtmpMessage> splitAggregate() {
+        List<RtmpMessage> messages = new ArrayList<RtmpMessage>();
+        int offset = 0;
+        int timestampOffset = 0;
+        while (offset + 11 <= payload.length) {
+            int type = payload[offset] & 0xFF;
+            int size = (payload[offset + 1] & 0xFF) << 16 | (payload[offset + 2] & 0xFF) << 8 | (payload[offset + 3] & 0xFF);
+            int tagTimestamp = (payload[offset + 4] & 0xFF) << 16 | (payload[offset + 5] & 0xFF) << 8
+                    | (payload[offset + 6] & 0xFF) | (payload[offset + 7] & 0xFF) << 24;
+            if (offset + 11 + size > payload.length)
+                break;
+            // Sub message timestamps are relative to the aggregate message timestamp
+            if (offset == 0)
+                timestampOffset = timestamp - tagTimestamp;
+            byte[] body = new byte[size];
+            System.arraycopy(payload, offset + 11, body, 0, size);
+            messages.add(new RtmpMessage(type, streamId, tagTimestamp + timestampOffset, body));
+            // Tag header, body and back pointer
+            offset += 11 + size + 4;
+        }
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "RtmpMessage{type=" + type + ", streamId=" + streamId + ", timestamp=" + timestamp + ", size=" + payload.length + "}";
+    }
+}
@@ -0,0 +1,279 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import com.insthync.simplescreenrtmp.core.Clock;
+import com.insthync.simplescreenrtmp.core.StreamStats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client side of an RTMP publishing session. Messages are buffered until {@link #flush()}, so
+ * several of them leave in one socket write. A write which makes no progress for the timeout
+ * given to {@link #open(int)} closes the socket and fails.
+ */
+public class RtmpPublisher {
+    public static final int CHUNK_SIZE = 4096;
+    private static final int SEND_BUFFER_SIZE = 256 * 1024;
+    private static final int CHUNK_STREAM_CONTROL = 2;
+    private static final int CHUNK_STREAM_COMMAND = 3;
+    private static final int CHUNK_STREAM_AUDIO = 4;
+    private static final int CHUNK_STREAM_DATA = 5;
+    private static final int CHUNK_STREAM_VIDEO = 6;
+    private static final int USER_CONTROL_PING_REQUEST = 6;
+    private static final int USER_CONTROL_PING_RESPONSE = 7;
+    private static final int TRANSACTION_CONNECT = 1;
+    private static final int TRANSACTION_CREATE_STREAM = 4;
+
+    private final RtmpUrl mUrl;
+    private final Clock mClock;
+    private final StreamStats mStats;
+    private Socket mSocket;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    private ChunkReader mChunkReader;
+    private ChunkWriter mChunkWriter;
+    private int mStreamId;
+    private long mWindowAckSize;
+    private long mLastAckBytes;
+    private long mHandshakeMillis;
+
+    public RtmpPublisher(RtmpUrl url, Clock clock, StreamStats stats) {
+        mUrl = url;
+        mClock = clock;
+        mStats = stats;
+    }
+
+    /**
+     * Connect, then wait until the server accepted the stream for publishing.
+     */
+    public void connect(int timeoutMs) throws IOException {
+        open(timeoutMs);
+        try {
+            publish();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Handshake and connect to the application, without publishing yet.
+     */
+    public void open(int timeoutMs) throws IOException {
+        mSocket = new Socket();
+        try {
+            mSocket.setTcpNoDelay(true);
+            mSocket.connect(new InetSocketAddress(mUrl.host, mUrl.port), timeoutMs);
+            mSocket.setSoTimeout(timeoutMs);
+            mInputStream = new BufferedInputStream(mSocket.getInputStream());
+            OutputStream socketStream = new DeadlineOutputStream(mSocket, mSocket.getOutputStream(), mClock, timeoutMs);
+            mOutputStream = new BufferedOutputStream(new CountingOutputStream(socketStream, mStats), SEND_BUFFER_SIZE);
+            long handshakeStartTime = mClock.elapsedMillis();
+            Handshake.client(mInputStream, mOutputStream);
+            mHandshakeMillis = mClock.elapsedMillis() - handshakeStartTime;
+            mChunkReader = new ChunkReader(mInputStream);
+            mChunkWriter = new ChunkWriter(mOutputStream);
+
+            sendControl(RtmpMessage.TYPE_SET_CHUNK_SIZE, int32(CHUNK_SIZE));
+            mChunkWriter.setChunkSize(CHUNK_SIZE);
+            sendCommand(0, "connect", TRANSACTION_CONNECT, Amf0.object(
+                    "app", mUrl.app,
+                    "type", "nonprivate",
+                    "flashVer", "FMLE/3.0 (compatible; FMSc/1.0)",
+                    "tcUrl", mUrl.getTcUrl()));
+            flush();
+            waitForResult(TRANSACTION_CONNECT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void publish() throws IOException {
+        sendCommand(0, "releaseStream", 2, null, mUrl.streamName);
+        sendCommand(0, "FCPublish", 3, null, mUrl.streamName);
+        sendCommand(0, "createStream", TRANSACTION_CREATE_STREAM, (Object) null);
+        flush();
+        List<Object> result = waitForResult(TRANSACTION_CREATE_STREAM);
+        if (result.size() < 4 || !(result.get(3) instanceof Number))
+            throw new IOException("createStream returned no stream id: " + result);
+        mStreamId = ((Number) result.get(3)).intValue();
+
+        sendCommand(mStreamId, "publish", 0, null, mUrl.streamName, "live");
+        flush();
+        waitForStatus("NetStream.Publish.Start");
+    }
+
+    /**
+     * @return duration of the handshake, which is about one round trip
+     */
+    public long getHandshakeMillis() {
+        return mHandshakeMillis;
+    }
+
+    /**
+     * A small send buffer makes blocking writes follow the uplink closely, e.g. while probing it.
+     */
+    public void setSendBufferSize(int size) throws IOException {
+        mSocket.setSendBufferSize(size);
+    }
+
+    /**
+     * Queue a message on the publishing stream, it is sent with the next {@link #flush()}.
+     */
+    public void sendMessage(int type, int timestamp, byte[] payload) throws IOException {
+        mChunkWriter.write(getChunkStreamId(type), new RtmpMessage(type, mStreamId, timestamp, payload));
+    }
+
+    /**
+     * Queue one chunk of a message, so other messages can be sent between the parts of a large one.
+     * Only one message per type may be in progress at a time.
+     *
+     * @return payload offset of the next chunk, the payload length once the message is complete
+     */
+    public int sendChunk(int type, int timestamp, byte[] payload, int offset) throws IOException {
+        return mChunkWriter.writeChunk(getChunkStreamId(type), new RtmpMessage(type, mStreamId, timestamp, payload), offset);
+    }
+
+    private static int getChunkStreamId(int type) {
+        if (type == RtmpMessage.TYPE_AUDIO)
+            return CHUNK_STREAM_AUDIO;
+        if (type == RtmpMessage.TYPE_VIDEO)
+            return CHUNK_STREAM_VIDEO;
+        return CHUNK_STREAM_DATA;
+    }
+
+    public void flush() throws IOException {
+        mOutputStream.flush();
+    }
+
+    /**
+     * Handle what the server sent meanwhile, e.g. pings, without blocking when there is nothing.
+     */
+    public void processIncoming() throws IOException {
+        while (mInputStream.available() > 0) {
+            RtmpMessage message = readMessage();
+            if (message.type == RtmpMessage.TYPE_COMMAND_AMF0)
+                checkStatus(Amf0.decode(message.payload));
+        }
+    }
+
+    public boolean isConnected() {
+        return mSocket != null && mSocket.isConnected() && !mSocket.isClosed();
+    }
+
+    public void close() {
+        if (mSocket == null)
+            return;
+        try {
+            mSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private RtmpMessage readMessage() throws IOException {
+        while (true) {
+            RtmpMessage message = mChunkReader.read();
+            long bytesRead = mChunkReader.getBytesRead();
+            if (mWindowAckSize > 0 && bytesRead - mLastAckBytes >= mWindowAckSize) {
+                sendControl(RtmpMessage.TYPE_ACKNOWLEDGEMENT, int32((int) bytesRead));
+                flush();
+                mLastAckBytes = bytesRead;
+            }
+            if (!handleControl(message))
+                return message;
+        }
+    }
+
+    private boolean handleControl(RtmpMessage message) throws IOException {
+        ByteBuffer payload = ByteBuffer.wrap(message.payload);
+        switch (message.type) {
+            case RtmpMessage.TYPE_SET_CHUNK_SIZE:
+                mChunkReader.setChunkSize(payload.getInt() & 0x7FFFFFFF);
+                return true;
+            case RtmpMessage.TYPE_WINDOW_ACK_SIZE:
+                mWindowAckSize = payload.getInt() & 0xFFFFFFFFL;
+                return true;
+            case RtmpMessage.TYPE_USER_CONTROL:
+                if (message.payload.length >= 6 && payload.getShort() == USER_CONTROL_PING_REQUEST) {
+                    byte[] response = new byte[6];
+                    response[1] = USER_CONTROL_PING_RESPONSE;
+                    System.arraycopy(message.payload, 2, response, 2, 4);
+                    sendControl(RtmpMessage.TYPE_USER_CONTROL, response);
+                    flush();
+                }
+                return true;
+            case RtmpMessage.TYPE_SET_PEER_BANDWIDTH:
+            case RtmpMessage.TYPE_ACKNOWLEDGEMENT:
+            case RtmpMessage.TYPE_ABORT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private List<Object> waitForResult(int transactionId) throws IOException {
+        while (true) {
+            RtmpMessage message = readMessage();
+            if (message.type != RtmpMessage.TYPE_COMMAND_AMF0)
+                continue;
+            List<Object> values = Amf0.decode(message.payload);
+            if (values.size() < 2 || !(values.get(1) instanceof Number) || ((Number) values.get(1)).intValue() != transactionId) {
+                checkStatus(values);
+                continue;
+            }
+            if ("_result".equals(values.get(0)))
+                return values;
+            throw new IOException("Command " + transactionId + " failed: " + values);
+        }
+    }
+
+    private void waitForStatus(String code) throws IOException {
+        while (true) {
+            RtmpMessage message = readMessage();
+            if (message.type != RtmpMessage.TYPE_COMMAND_AMF0)
+                continue;
+            List<Object> values = Amf0.decode(message.payload);
+            checkStatus(values);
+            Map<?, ?> info = getStatusInfo(values);
+            if (info != null && code.equals(info.get("code")))
+                return;
+        }
+    }
+
+    private static void checkStatus(List<Object> values) throws IOException {
+        Map<?, ?> info = getStatusInfo(values);
+        if (info != null && "error".equals(info.get("level")))
+            throw new IOException("Server error: " + info.get("code") + " " + info.get("description"));
+    }
+
+    private static Map<?, ?> getStatusInfo(List<Object> values) {
+        if (values.size() < 4 || !"onStatus".equals(values.get(0)) || !(values.get(3) instanceof Map))
+            return null;
+        return (Map<?, ?>) values.get(3);
+    }
+
+    private void sendCommand(int streamId, String name, int transactionId, Object... arguments) throws IOException {
+        Object[] values = new Object[arguments.length + 2];
+        values[0] = name;
+        values[1] = transactionId;
+        System.arraycopy(arguments, 0, values, 2, arguments.length);
+        mChunkWriter.write(CHUNK_STREAM_COMMAND, new RtmpMessage(RtmpMessage.TYPE_COMMAND_AMF0, streamId, 0, Amf0.encode(values)));
+    }
+
+    private void sendControl(int type, byte[] payload) throws IOException {
+        mChunkWriter.write(CHUNK_STREAM_CONTROL, new RtmpMessage(type, 0, 0, payload));
+    }
+
+    static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+}
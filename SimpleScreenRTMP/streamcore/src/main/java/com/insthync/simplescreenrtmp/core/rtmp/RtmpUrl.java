@@ -0,0 +1,49 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+/**
+ * rtmp://host[:port]/app[/instance]/streamName
+ */
+public final class RtmpUrl {
+    public static final int DEFAULT_PORT = 1935;
+
+    public final String host;
+    public final int port;
+    public final String app;
+    public final String streamName;
+
+    public RtmpUrl(String host, int port, String app, String streamName) {
+        this.host = host;
+        this.port = port;
+        this.app = app;
+        this.streamName = streamName;
+    }
+
+    public static RtmpUrl parse(String url) {
+        String prefix = "rtmp://";
+        if (url == null || !url.regionMatches(true, 0, prefix, 0, prefix.length()))
+            throw new IllegalArgumentException("Not an rtmp:// url: " + url);
+        String rest = url.substring(prefix.length());
+        int slash = rest.indexOf('/');
+        int lastSlash = rest.lastIndexOf('/');
+        if (slash < 0 || lastSlash == slash || lastSlash == rest.length() - 1)
+            throw new IllegalArgumentException("Missing app or stream name: " + url);
+        String authority = rest.substring(0, slash);
+        String host = authority;
+        int port = DEFAULT_PORT;
+        int colon = authority.lastIndexOf(':');
+        if (colon >= 0) {
+            host = authority.substring(0, colon);
+            port = Integer.parseInt(authority.substring(colon + 1));
+        }
+        return new RtmpUrl(host, port, rest.substring(slash + 1, lastSlash), rest.substring(lastSlash + 1));
+    }
+
+    public String getTcUrl() {
+        return "rtmp://" + host + ":" + port + "/" + app;
+    }
+
+    @Override
+    public String toString() {
+        return getTcUrl() + "/" + streamName;
+    }
+}
@@ -0,0 +1,80 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncFrameSinkTest {
+    @Test
+    public void deliversFramesOnSenderThread() throws Exception {
+        StreamStats stats = new StreamStats();
+        NullSink nullSink = new NullSink();
+        AsyncFrameSink sink = new AsyncFrameSink(nullSink, 1 << 20, stats);
+        for (int i = 0; i < 100; i++)
+            sink.write(TestFrames.audio(i * 23, 10));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stats.getAudioFrames() < 100 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        sink.close();
+        assertEquals(100, stats.getAudioFrames());
+        assertEquals(100, nullSink.getStats().getAudioFrames());
+    }
+
+    @Test
+    public void closeDiscardsQueuedFramesAndAbortsBlockedWrite() throws Exception {
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final boolean[] isClosed = new boolean[1];
+        StreamStats stats = new StreamStats();
+        AsyncFrameSink sink = new AsyncFrameSink(new AbortableFrameSink() {
+            @Override
+            public int write(EncodedFrame frame) {
+                writeStarted.countDown();
+                try {
+                    // A write on a dead network, only an abort ends it
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+
+            @Override
+            public void abort() {
+                aborted.countDown();
+            }
+
+            @Override
+            public void close() {
+                isClosed[0] = true;
+            }
+        }, 1 << 20, stats);
+        for (int i = 0; i < 5; i++)
+            sink.write(TestFrames.audio(i * 23, 10));
+        assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+        long startTime = System.currentTimeMillis();
+        sink.close();
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        assertEquals(0, aborted.getCount());
+        assertTrue(isClosed[0]);
+        assertEquals(4, stats.getDroppedFrames());
+        assertEquals(0, sink.getQueue().size());
+    }
+
+    @Test
+    public void closesDownstreamOnSenderThread() throws Exception {
+        final Thread[] closingThread = new Thread[1];
+        AsyncFrameSink sink = new AsyncFrameSink(new NullSink() {
+            @Override
+            public void close() {
+                closingThread[0] = Thread.currentThread();
+            }
+        }, 1 << 20, new StreamStats());
+        sink.close();
+        assertNotNull(closingThread[0]);
+        assertTrue(closingThread[0] != Thread.currentThread());
+    }
+}
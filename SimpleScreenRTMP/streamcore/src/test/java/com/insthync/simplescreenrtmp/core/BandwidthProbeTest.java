@@ -0,0 +1,82 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BandwidthProbeTest {
+    private static final int[][] LADDER = {
+            {640, 480, 15, 500000},
+            {320, 240, 15, 250000},
+            {1280, 720, 30, 2000000},
+    };
+
+    @Test
+    public void selectsHighestTierWhichFits() throws Exception {
+        BitrateLadder ladder = new BitrateLadder(LADDER);
+        assertEquals(320, ladder.select(0, 0.7).width);
+        assertEquals(320, ladder.select(500000, 0.7).width);
+        assertEquals(640, ladder.select(800000, 0.7).width);
+        assertEquals(1280, ladder.select(10000000, 0.7).width);
+        assertEquals(30, ladder.select(10000000, 0.7).fps);
+    }
+
+    @Test
+    public void measuresLocalUplink() throws Exception {
+        final AtomicLong receivedBytes = new AtomicLong();
+        RtmpServer server = new RtmpServer(0, new RtmpServer.Listener() {
+            @Override
+            public void onMessage(String streamName, RtmpMessage message) {
+                receivedBytes.addAndGet(message.payload.length);
+            }
+        });
+        server.start();
+        try {
+            BandwidthProbe probe = new BandwidthProbe("rtmp://127.0.0.1:" + server.getPort() + "/live/test",
+                    Clock.SYSTEM, 200, 1024 * 1024);
+            BandwidthProbe.Result result = probe.run();
+            assertTrue(result.bytesSent >= 1024 * 1024 || result.durationMs >= 200);
+            assertTrue(result.throughputBps > 0);
+            assertTrue(result.rttMs >= 0);
+
+            StreamStats stats = new StreamStats();
+            stats.onBandwidthProbe(result);
+            assertSame(result, stats.getProbeResult());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givesUpOnServerWhichStopsReading() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RtmpServer server = new RtmpServer(0, new RtmpServer.Listener() {
+            @Override
+            public void onMessage(String streamName, RtmpMessage message) {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        server.start();
+        long startTime = System.currentTimeMillis();
+        try {
+            new BandwidthProbe("rtmp://127.0.0.1:" + server.getPort() + "/live/test", Clock.SYSTEM, 200, Integer.MAX_VALUE).run();
+            fail("The probe should have timed out");
+        } catch (IOException expected) {
+            // Writes block once the socket buffers are full, only the deadline ends them
+        } finally {
+            release.countDown();
+            server.close();
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+    }
+}
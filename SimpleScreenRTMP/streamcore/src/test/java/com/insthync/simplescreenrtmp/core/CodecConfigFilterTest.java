@@ -0,0 +1,26 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CodecConfigFilterTest {
+    @Test
+    public void passesFirstConfigOfEachTrackOnly() throws Exception {
+        NullSink nullSink = new NullSink();
+        CodecConfigFilter filter = new CodecConfigFilter(nullSink);
+        filter.write(TestFrames.videoConfig());
+        filter.write(TestFrames.videoConfig());
+        filter.write(TestFrames.audioConfig());
+        filter.write(TestFrames.audioConfig());
+        filter.write(TestFrames.video(0, true, 10));
+        assertEquals(2, nullSink.getStats().getVideoFrames());
+        assertEquals(1, nullSink.getStats().getAudioFrames());
+
+        filter.reset(EncodedFrame.TYPE_VIDEO);
+        filter.write(TestFrames.videoConfig());
+        filter.write(TestFrames.audioConfig());
+        assertEquals(3, nullSink.getStats().getVideoFrames());
+        assertEquals(1, nullSink.getStats().getAudioFrames());
+    }
+}
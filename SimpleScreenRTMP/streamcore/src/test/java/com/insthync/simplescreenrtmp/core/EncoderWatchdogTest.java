@@ -0,0 +1,55 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncoderWatchdogTest {
+    private ManualClock mClock;
+    private StreamStats mStats;
+    private EncoderWatchdog mWatchdog;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new ManualClock();
+        mStats = new StreamStats();
+        mWatchdog = new EncoderWatchdog(mClock, mStats, 1000, 2, 10000);
+    }
+
+    @Test
+    public void detectsStallOnlyWhileInputIsAttached() throws Exception {
+        mClock.advance(5000);
+        assertEquals(EncoderWatchdog.ACTION_NONE, mWatchdog.check());
+
+        mWatchdog.onInputAttached();
+        mClock.advance(900);
+        assertEquals(EncoderWatchdog.ACTION_NONE, mWatchdog.check());
+        mWatchdog.onEncoderOutput();
+        mClock.advance(900);
+        assertEquals(EncoderWatchdog.ACTION_NONE, mWatchdog.check());
+        mClock.advance(100);
+        assertEquals(EncoderWatchdog.ACTION_RECOVER, mWatchdog.check());
+
+        mWatchdog.onInputDetached();
+        assertEquals(EncoderWatchdog.ACTION_NONE, mWatchdog.check());
+    }
+
+    @Test
+    public void codecErrorRecoversImmediatelyAndGivesUpWhenRepeated() throws Exception {
+        mWatchdog.onCodecError();
+        assertEquals(EncoderWatchdog.ACTION_RECOVER, mWatchdog.check());
+        mWatchdog.onRecovered();
+        assertEquals(EncoderWatchdog.ACTION_NONE, mWatchdog.check());
+
+        mWatchdog.onCodecError();
+        mWatchdog.onRecovered();
+        mWatchdog.onCodecError();
+        assertEquals(EncoderWatchdog.ACTION_GIVE_UP, mWatchdog.check());
+        assertEquals(2, mStats.getEncoderRecoveries());
+
+        // Old recoveries leave the window
+        mClock.advance(10000);
+        assertEquals(EncoderWatchdog.ACTION_RECOVER, mWatchdog.check());
+    }
+}
@@ -0,0 +1,70 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FlvMuxerTest {
+    @Test
+    public void splitsAnnexBWithThreeAndFourByteStartCodes() throws Exception {
+        byte[] data = {0, 0, 0, 1, 0x67, 1, 2, 0, 0, 1, 0x68, 3};
+        List<int[]> units = NalUnits.split(data);
+        assertEquals(2, units.size());
+        assertEquals(4, units.get(0)[0]);
+        assertEquals(3, units.get(0)[1]);
+        assertEquals(10, units.get(1)[0]);
+        assertEquals(2, units.get(1)[1]);
+    }
+
+    @Test
+    public void videoConfigBecomesAvcDecoderConfigurationRecord() throws Exception {
+        byte[] tag = FlvMuxer.createTag(TestFrames.videoConfig());
+        assertNotNull(tag);
+        assertEquals(FlvMuxer.TAG_TYPE_VIDEO, tag[0]);
+        int body = FlvMuxer.TAG_HEADER_SIZE;
+        assertEquals(0x17, tag[body]);
+        assertEquals(0, tag[body + 1]);
+        // configurationVersion, profile, compatibility, level
+        assertEquals(1, tag[body + 5]);
+        assertEquals(TestFrames.SPS[1], tag[body + 6]);
+        assertEquals(TestFrames.SPS[3], tag[body + 8]);
+        assertEquals(TestFrames.SPS.length, tag[body + 12]);
+        int dataSize = (tag[1] & 0xFF) << 16 | (tag[2] & 0xFF) << 8 | (tag[3] & 0xFF);
+        assertEquals(5 + 6 + 2 + TestFrames.SPS.length + 3 + TestFrames.PPS.length, dataSize);
+        assertEquals(FlvMuxer.TAG_HEADER_SIZE + dataSize, tag[tag.length - 1] & 0xFF);
+    }
+
+    @Test
+    public void videoConfigWithoutPpsIsRejected() throws Exception {
+        EncodedFrame frame = new EncodedFrame(EncodedFrame.TYPE_VIDEO, EncodedFrame.FLAG_CODEC_CONFIG, 0, TestFrames.annexB(TestFrames.SPS));
+        assertNull(FlvMuxer.createTag(frame));
+    }
+
+    @Test
+    public void keyFrameIsLengthPrefixed() throws Exception {
+        byte[] tag = FlvMuxer.createTag(TestFrames.video(0x01020304, true, 10));
+        int body = FlvMuxer.TAG_HEADER_SIZE;
+        assertEquals(0x17, tag[body]);
+        assertEquals(1, tag[body + 1]);
+        assertEquals(10, tag[body + 8]);
+        assertEquals(0x65, tag[body + 9]);
+        // Lower 24 bits then the extended byte
+        assertEquals(0x02, tag[4]);
+        assertEquals(0x04, tag[6]);
+        assertEquals(0x01, tag[7]);
+    }
+
+    @Test
+    public void fileSinkWritesHeaderOnce() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileSink sink = new FileSink(out);
+        int first = sink.write(TestFrames.audioConfig());
+        int second = sink.write(TestFrames.audio(23, 6));
+        sink.close();
+        assertEquals(FlvMuxer.createFileHeader(true, true).length + first + second, out.size());
+        assertEquals(FlvMuxer.TAG_HEADER_SIZE + 2 + 6 + FlvMuxer.PREVIOUS_TAG_SIZE, second);
+    }
+}
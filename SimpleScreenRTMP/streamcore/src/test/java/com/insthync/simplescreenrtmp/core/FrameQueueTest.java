@@ -0,0 +1,72 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameQueueTest {
+    @Test
+    public void dropsVideoUntilNextKeyFrameWhenFull() throws Exception {
+        StreamStats stats = new StreamStats();
+        FrameQueue queue = new FrameQueue(250, stats);
+        assertTrue(queue.offer(TestFrames.video(0, true, 100)));
+        assertTrue(queue.offer(TestFrames.video(66, false, 100)));
+        assertFalse(queue.offer(TestFrames.video(133, false, 100)));
+        queue.poll(0, TimeUnit.MILLISECONDS);
+        // There is room again, but the reference of this frame is gone
+        assertFalse(queue.offer(TestFrames.video(200, false, 100)));
+        assertTrue(queue.offer(TestFrames.video(266, true, 100)));
+        assertEquals(2, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void neverDropsCodecConfig() throws Exception {
+        FrameQueue queue = new FrameQueue(1, new StreamStats());
+        assertTrue(queue.offer(TestFrames.videoConfig()));
+        assertTrue(queue.offer(TestFrames.audioConfig()));
+        assertFalse(queue.offer(TestFrames.audio(0, 10)));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void closedQueueDrainsThenReturnsNull() throws Exception {
+        FrameQueue queue = new FrameQueue(1000, new StreamStats());
+        queue.offer(TestFrames.audio(0, 10));
+        queue.close();
+        assertFalse(queue.offer(TestFrames.audio(23, 10)));
+        assertNotNull(queue.poll(1, TimeUnit.SECONDS));
+        assertNull(queue.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureDiscardsQueuedFramesAndFailsOffersUntilRecovered() throws Exception {
+        StreamStats stats = new StreamStats();
+        FrameQueue queue = new FrameQueue(1000, stats);
+        queue.offer(TestFrames.audio(0, 10));
+        queue.offer(TestFrames.audio(23, 10));
+        queue.fail();
+        assertTrue(queue.isFailed());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getQueuedBytes());
+        assertFalse(queue.offer(TestFrames.audio(46, 10)));
+        assertFalse(queue.offer(TestFrames.audio(69, 10)));
+        queue.recover();
+        assertTrue(queue.offer(TestFrames.audio(92, 10)));
+        // The producer keeps what a failed queue refused
+        assertEquals(0, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void clearCountsQueuedFramesAsDropped() throws Exception {
+        StreamStats stats = new StreamStats();
+        FrameQueue queue = new FrameQueue(1000, stats);
+        queue.offer(TestFrames.audio(0, 10));
+        queue.offer(TestFrames.audio(23, 10));
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getQueuedBytes());
+        assertEquals(2, stats.getDroppedFrames());
+    }
+}
@@ -0,0 +1,108 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameSpoolTest {
+    private static final int RECORD_SIZE = FrameSpool.RECORD_HEADER_SIZE + 100;
+
+    private File mFile;
+    private StreamStats mStats;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("spool", ".bin");
+        mFile.delete();
+        mStats = new StreamStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void framesComeOutInOrder() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 10 * RECORD_SIZE, mStats);
+        spool.append(TestFrames.video(0, true, 100));
+        spool.append(TestFrames.audio(23, 100));
+        FrameSpool.Entry entry = spool.peek();
+        assertEquals(0, entry.frame.timestamp);
+        assertTrue(entry.frame.isKeyFrame());
+        assertTrue(spool.remove(entry.sequence));
+        // Already removed
+        assertFalse(spool.remove(entry.sequence));
+        assertEquals(23, spool.peek().frame.timestamp);
+        spool.close();
+    }
+
+    @Test
+    public void evictsOldestGopAndKeepsItsConfig() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 7 * RECORD_SIZE, mStats);
+        spool.append(new EncodedFrame(EncodedFrame.TYPE_VIDEO, EncodedFrame.FLAG_CODEC_CONFIG, 0, new byte[100]));
+        spool.append(TestFrames.video(0, true, 100));
+        spool.append(TestFrames.video(66, false, 100));
+        spool.append(TestFrames.audio(70, 100));
+        spool.append(TestFrames.video(1000, true, 100));
+        spool.append(TestFrames.video(1066, false, 100));
+        spool.append(TestFrames.video(1133, false, 100));
+        // Full, the first GOP including the config before it has to go
+        spool.append(TestFrames.video(1200, false, 100));
+        assertEquals(4, spool.size());
+        assertEquals(4, mStats.getEvictedFrames());
+        assertEquals(1000, spool.peek().frame.timestamp);
+        List<EncodedFrame> configs = spool.getHeadConfigs();
+        assertEquals(1, configs.size());
+        assertTrue(configs.get(0).isCodecConfig());
+        spool.close();
+    }
+
+    @Test
+    public void wrapsAroundTheEndOfTheRing() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 3 * RECORD_SIZE + 50, mStats);
+        for (int i = 0; i < 20; i++) {
+            spool.append(TestFrames.audio(i, 100));
+            FrameSpool.Entry entry = spool.peek();
+            if (i % 2 == 0)
+                spool.remove(entry.sequence);
+        }
+        int previous = -1;
+        while (!spool.isEmpty()) {
+            FrameSpool.Entry entry = spool.peek();
+            assertTrue(entry.frame.timestamp > previous);
+            assertEquals(100, entry.frame.data.length);
+            previous = entry.frame.timestamp;
+            spool.remove(entry.sequence);
+        }
+        assertEquals(0, spool.getUsedBytes());
+        spool.close();
+    }
+
+    @Test
+    public void restoresBacklogOfPreviousSession() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 10 * RECORD_SIZE, mStats);
+        spool.append(TestFrames.videoConfig());
+        spool.append(TestFrames.video(0, true, 100));
+        spool.append(TestFrames.video(66, false, 100));
+        spool.remove(spool.peek().sequence);
+        spool.close();
+
+        spool = new FrameSpool(mFile, 10 * RECORD_SIZE, mStats);
+        assertEquals(2, spool.size());
+        assertEquals(1, spool.getHeadConfigs().size());
+        assertArrayEquals(TestFrames.videoConfig().data, spool.getHeadConfigs().get(0).data);
+        assertTrue(spool.peek().frame.isKeyFrame());
+        spool.close();
+
+        // Another capacity can not reuse the ring
+        spool = new FrameSpool(mFile, 20 * RECORD_SIZE, mStats);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+}
@@ -0,0 +1,61 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyFrameAlignerTest {
+    @Test
+    public void requestsAllRenditionsOncePerInterval() throws Exception {
+        ManualClock clock = new ManualClock();
+        StreamStats stats = new StreamStats();
+        KeyFrameAligner aligner = new KeyFrameAligner(clock, stats, 1000, 3);
+        assertEquals(0, aligner.takeKeyFrameRequests());
+        clock.advance(1000);
+        assertEquals(7, aligner.takeKeyFrameRequests());
+        assertEquals(0, aligner.takeKeyFrameRequests());
+
+        aligner.onKeyFrame(0, 1000);
+        aligner.onKeyFrame(1, 1000);
+        aligner.onKeyFrame(2, 1066);
+        // Requested ones do not start another round
+        assertEquals(0, aligner.takeKeyFrameRequests());
+        assertEquals(66, stats.getMaxKeyFrameSkewMillis());
+    }
+
+    @Test
+    public void unsolicitedKeyFrameIsFollowedByTheOthers() throws Exception {
+        ManualClock clock = new ManualClock();
+        KeyFrameAligner aligner = new KeyFrameAligner(clock, new StreamStats(), 1000, 3);
+        for (int i = 0; i < 3; i++)
+            aligner.onKeyFrame(i, 0);
+        assertEquals(0, aligner.takeKeyFrameRequests());
+        clock.advance(500);
+        aligner.onKeyFrame(1, 500);
+        assertEquals(1 | 1 << 2, aligner.takeKeyFrameRequests());
+        aligner.onKeyFrame(0, 566);
+        aligner.onKeyFrame(2, 566);
+        // The round restarted the interval
+        clock.advance(900);
+        assertEquals(0, aligner.takeKeyFrameRequests());
+        clock.advance(100);
+        assertEquals(7, aligner.takeKeyFrameRequests());
+    }
+
+    @Test
+    public void monitorSeesOnlyVideoKeyFrames() throws Exception {
+        ManualClock clock = new ManualClock();
+        KeyFrameAligner aligner = new KeyFrameAligner(clock, new StreamStats(), 1000, 2);
+        NullSink nullSink = new NullSink();
+        FrameSink sink = aligner.monitor(1, new FanOutSink(nullSink));
+        aligner.onKeyFrame(0, 0);
+        aligner.onKeyFrame(1, 0);
+        sink.write(TestFrames.videoConfig());
+        sink.write(TestFrames.audio(0, 10));
+        sink.write(TestFrames.video(0, false, 10));
+        assertEquals(0, aligner.takeKeyFrameRequests());
+        sink.write(TestFrames.video(66, true, 10));
+        assertEquals(1, aligner.takeKeyFrameRequests());
+        assertEquals(3, nullSink.getStats().getVideoFrames());
+    }
+}
@@ -0,0 +1,71 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Receiving side of the {@link LatencyStamper}, collects capture to receive latencies of the
+ * stamped frames. Both ends compare wall clocks, so they have to be in sync, e.g. through NTP.
+ */
+public class LatencyMonitor implements RtmpServer.Listener {
+    private final List<Long> mLatencies = new ArrayList<Long>();
+
+    @Override
+    public void onMessage(String streamName, RtmpMessage message) {
+        if (message.type != RtmpMessage.TYPE_VIDEO)
+            return;
+        long captureTimeMs = LatencyStamper.readStamp(message.payload);
+        if (captureTimeMs >= 0)
+            onStamp(captureTimeMs, System.currentTimeMillis());
+    }
+
+    public synchronized void onStamp(long captureTimeMs, long receiveTimeMs) {
+        mLatencies.add(receiveTimeMs - captureTimeMs);
+    }
+
+    /**
+     * @return distribution of the latencies received since the previous call
+     */
+    public synchronized Distribution takeDistribution() {
+        Distribution distribution = new Distribution(mLatencies);
+        mLatencies.clear();
+        return distribution;
+    }
+
+    public static final class Distribution {
+        public final int count;
+        public final long min;
+        public final long median;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Distribution(List<Long> latencies) {
+            List<Long> sorted = new ArrayList<Long>(latencies);
+            Collections.sort(sorted);
+            count = sorted.size();
+            min = percentile(sorted, 0);
+            median = percentile(sorted, 50);
+            p90 = percentile(sorted, 90);
+            p99 = percentile(sorted, 99);
+            max = percentile(sorted, 100);
+        }
+
+        private static long percentile(List<Long> sorted, int percent) {
+            if (sorted.isEmpty())
+                return 0;
+            // Nearest rank
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " min=" + min + " median=" + median + " p90=" + p90 + " p99=" + p99 + " max=" + max;
+        }
+    }
+}
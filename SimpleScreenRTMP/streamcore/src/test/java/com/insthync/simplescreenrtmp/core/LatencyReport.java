@@ -0,0 +1,29 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Local RTMP stand-in server printing the capture to receive latency of stamped streams, run with
+ * `./gradlew :streamcore:latencyReport -Pport=1935 -Pwindow=10` and publish to rtmp://host:port/live/test.
+ */
+public class LatencyReport {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 1935;
+        int windowSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        LatencyMonitor monitor = new LatencyMonitor();
+        RtmpServer server = new RtmpServer(null, port, monitor);
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + ", latency in ms per " + windowSeconds + " s");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        while (true) {
+            Thread.sleep(windowSeconds * 1000L);
+            LatencyMonitor.Distribution distribution = monitor.takeDistribution();
+            if (distribution.count > 0)
+                System.out.println(timeFormat.format(new Date()) + " " + distribution);
+        }
+    }
+}
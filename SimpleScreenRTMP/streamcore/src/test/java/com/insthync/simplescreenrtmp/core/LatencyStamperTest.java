@@ -0,0 +1,97 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyStamperTest {
+    @Test
+    public void stampSurvivesMuxing() throws Exception {
+        EncodedFrame frame = TestFrames.video(66, true, 100);
+        EncodedFrame stamped = LatencyStamper.stamp(frame, 1500000000123L);
+        assertEquals(frame.timestamp, stamped.timestamp);
+        assertEquals(frame.flags, stamped.flags);
+        // SEI first, then the slice
+        assertEquals(2, NalUnits.split(stamped.data).size());
+        assertEquals(NalUnits.TYPE_SEI, NalUnits.getType(stamped.data, NalUnits.split(stamped.data).get(0)[0]));
+        assertEquals(1500000000123L, LatencyStamper.readStamp(FlvMuxer.createTagBody(stamped)));
+        assertEquals(-1, LatencyStamper.readStamp(FlvMuxer.createTagBody(frame)));
+        assertEquals(-1, LatencyStamper.readStamp(FlvMuxer.createTagBody(TestFrames.videoConfig())));
+    }
+
+    @Test
+    public void stampsOncePerInterval() throws Exception {
+        TimestampBase timestampBase = new TimestampBase();
+        timestampBase.toMillis(System.nanoTime() / 1000);
+        NullSink nullSink = new NullSink();
+        final int[] stamps = new int[1];
+        FrameSink counter = new FrameStage(nullSink) {
+            @Override
+            public int write(EncodedFrame frame) {
+                if (LatencyStamper.readStamp(FlvMuxer.createTagBody(frame)) >= 0)
+                    stamps[0]++;
+                return super.write(frame);
+            }
+        };
+        LatencyStamper stamper = new LatencyStamper(counter, timestampBase, 1000);
+        stamper.write(TestFrames.videoConfig());
+        stamper.write(TestFrames.audio(0, 10));
+        for (int i = 0; i < 45; i++)
+            stamper.write(TestFrames.video(i * 66, i % 15 == 0, 100));
+        // At 0, 1056 and 2112 ms
+        assertEquals(3, stamps[0]);
+        assertEquals(46, nullSink.getStats().getVideoFrames());
+    }
+
+    @Test
+    public void stampIsCaptureWallClockTime() throws Exception {
+        TimestampBase timestampBase = new TimestampBase();
+        long before = System.currentTimeMillis();
+        int timestamp = timestampBase.toMillis(System.nanoTime() / 1000 - 50000);
+        long after = System.currentTimeMillis();
+        long wallClockMs = timestampBase.toWallClockMillis(timestamp);
+        // Captured 50 ms ago, give or take the clock granularity
+        assertTrue(wallClockMs >= before - 60 && wallClockMs <= after - 40);
+    }
+
+    @Test
+    public void monitorReadsPublishedStamps() throws Exception {
+        LatencyMonitor monitor = new LatencyMonitor();
+        RtmpServer server = new RtmpServer(0, monitor);
+        server.start();
+        RtmpPublishSink sink = new RtmpPublishSink("rtmp://127.0.0.1:" + server.getPort() + "/live/test",
+                Clock.SYSTEM, new StreamStats(), 0, 0, false);
+        long now = System.currentTimeMillis();
+        sink.write(TestFrames.videoConfig());
+        sink.write(LatencyStamper.stamp(TestFrames.video(0, true, 100), now - 30));
+        sink.write(LatencyStamper.stamp(TestFrames.video(66, false, 100), now - 20));
+        LatencyMonitor.Distribution distribution = null;
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(20);
+            distribution = monitor.takeDistribution();
+            if (distribution.count > 0)
+                break;
+        }
+        sink.close();
+        server.close();
+        assertTrue(distribution.count > 0);
+        assertTrue(distribution.min >= 20);
+    }
+
+    @Test
+    public void monitorReportsDistributionPerWindow() throws Exception {
+        LatencyMonitor monitor = new LatencyMonitor();
+        for (int i = 1; i <= 100; i++)
+            monitor.onStamp(1000, 1000 + i);
+        LatencyMonitor.Distribution distribution = monitor.takeDistribution();
+        assertEquals(100, distribution.count);
+        assertEquals(1, distribution.min);
+        assertEquals(50, distribution.median);
+        assertEquals(90, distribution.p90);
+        assertEquals(99, distribution.p99);
+        assertEquals(100, distribution.max);
+        assertEquals(0, monitor.takeDistribution().count);
+    }
+}
@@ -0,0 +1,17 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Clock which only moves when a test advances it.
+ */
+class ManualClock implements Clock {
+    private long mNow;
+
+    @Override
+    public long elapsedMillis() {
+        return mNow;
+    }
+
+    void advance(long millis) {
+        mNow += millis;
+    }
+}
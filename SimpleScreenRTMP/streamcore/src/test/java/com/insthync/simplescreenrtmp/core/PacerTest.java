@@ -0,0 +1,94 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacerTest {
+    @Test
+    public void spreadsBytesAtThePacingRate() throws Exception {
+        ManualClock clock = new ManualClock();
+        // 100 kB/s
+        Pacer pacer = new Pacer(clock, 800000, 1, 500);
+        assertEquals(0, pacer.getMillisUntilSendable(4096, 4096));
+        pacer.onSent(4096);
+        assertEquals(41, pacer.getMillisUntilSendable(4096, 4096));
+        clock.advance(41);
+        assertEquals(0, pacer.getMillisUntilSendable(4096, 4096));
+    }
+
+    @Test
+    public void backlogIsSentWithinTheWindow() throws Exception {
+        ManualClock clock = new ManualClock();
+        Pacer pacer = new Pacer(clock, 800000, 1, 500);
+        assertEquals(100000, pacer.getRate(10000));
+        assertEquals(200000, pacer.getRate(100000));
+        pacer.onSent(4096);
+        assertEquals(21, pacer.getMillisUntilSendable(4096, 100000));
+    }
+
+    @Test
+    public void audioOverdrawsOnlyOneBurst() throws Exception {
+        ManualClock clock = new ManualClock();
+        Pacer pacer = new Pacer(clock, 800000, 1, 500);
+        for (int i = 0; i < 100; i++)
+            pacer.onSent(1000);
+        // 4096 bytes owed plus 4096 for the chunk
+        assertEquals(82, pacer.getMillisUntilSendable(4096, 4096));
+    }
+
+    @Test
+    public void audioOvertakesPacedKeyFrame() throws Exception {
+        final List<RtmpMessage> received = new ArrayList<RtmpMessage>();
+        RtmpServer server = new RtmpServer(0, new RtmpServer.Listener() {
+            @Override
+            public void onMessage(String streamName, RtmpMessage message) {
+                synchronized (received) {
+                    received.add(message);
+                    received.notifyAll();
+                }
+            }
+        });
+        server.start();
+        ManualClock clock = new ManualClock();
+        StreamStats stats = new StreamStats(clock);
+        RtmpPublishSink sink = new RtmpPublishSink("rtmp://127.0.0.1:" + server.getPort() + "/live/test",
+                clock, stats, 0, 0, false);
+        sink.setPacer(new Pacer(clock, 800000, 1, 1000));
+        sink.write(TestFrames.videoConfig());
+        // 5 chunks, at 100 kB/s the last one leaves 160 ms later
+        sink.write(TestFrames.video(0, true, 20000));
+        sink.write(TestFrames.audio(0, 200));
+        sink.write(TestFrames.audio(23, 200));
+        long millisUntilDue = sink.flushDue();
+        assertTrue(millisUntilDue > 0);
+        for (int i = 0; i < 20 && millisUntilDue > 0; i++) {
+            clock.advance(millisUntilDue);
+            millisUntilDue = sink.flushDue();
+        }
+        assertEquals(-1, millisUntilDue);
+        sink.close();
+        server.close();
+
+        synchronized (received) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 4 && System.currentTimeMillis() < deadline)
+                received.wait(100);
+            assertEquals(4, received.size());
+            assertEquals(RtmpMessage.TYPE_VIDEO, received.get(0).type);
+            assertEquals(RtmpMessage.TYPE_AUDIO, received.get(1).type);
+            assertEquals(RtmpMessage.TYPE_AUDIO, received.get(2).type);
+            assertEquals(RtmpMessage.TYPE_VIDEO, received.get(3).type);
+            assertArrayEquals(FlvMuxer.createTagBody(TestFrames.video(0, true, 20000)), received.get(3).payload);
+        }
+        // The config goes out unpaced right after connecting
+        assertEquals(1, stats.getPacedFrames());
+        assertTrue(stats.getMaxPacingDelayMillis() >= 120);
+    }
+}
@@ -0,0 +1,49 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PauseGateTest {
+    @Test
+    public void pausedStreamKeepsAudioAndSparseKeyFrames() throws Exception {
+        ManualClock clock = new ManualClock();
+        NullSink nullSink = new NullSink();
+        StreamStats stats = new StreamStats();
+        PauseGate gate = new PauseGate(nullSink, clock, stats, 2000);
+        gate.write(TestFrames.videoConfig());
+        gate.write(TestFrames.video(0, true, 10));
+        gate.pause();
+        assertTrue(gate.isPaused());
+
+        gate.write(TestFrames.video(66, false, 10));
+        gate.write(TestFrames.audio(66, 10));
+        // The first key frame while paused is the keepalive, the next one waits for the interval
+        gate.write(TestFrames.video(1000, true, 10));
+        clock.advance(1000);
+        gate.write(TestFrames.video(2000, true, 10));
+        clock.advance(1000);
+        gate.write(TestFrames.video(3000, true, 10));
+        assertEquals(4, nullSink.getStats().getVideoFrames());
+        assertEquals(1, nullSink.getStats().getAudioFrames());
+        assertEquals(2, stats.getHeldBackFrames());
+    }
+
+    @Test
+    public void resumeStartsWithKeyFrame() throws Exception {
+        ManualClock clock = new ManualClock();
+        NullSink nullSink = new NullSink();
+        StreamStats stats = new StreamStats();
+        PauseGate gate = new PauseGate(nullSink, clock, stats);
+        gate.pause();
+        gate.resume();
+        assertFalse(gate.isPaused());
+        gate.write(TestFrames.video(0, false, 10));
+        gate.write(TestFrames.video(66, false, 10));
+        assertEquals(0, nullSink.getStats().getVideoFrames());
+        gate.write(TestFrames.video(133, true, 10));
+        gate.write(TestFrames.video(200, false, 10));
+        assertEquals(2, nullSink.getStats().getVideoFrames());
+        assertEquals(2, stats.getHeldBackFrames());
+    }
+}
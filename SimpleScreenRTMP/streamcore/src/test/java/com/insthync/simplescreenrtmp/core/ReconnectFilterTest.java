@@ -0,0 +1,32 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReconnectFilterTest {
+    @Test
+    public void newConnectionStartsWithConfigAndKeyFrame() {
+        ReconnectFilter filter = new ReconnectFilter();
+        EncodedFrame videoConfig = TestFrames.videoConfig();
+        filter.remember(videoConfig);
+        assertEquals(ReconnectFilter.SEND, filter.filter(videoConfig));
+        filter.remember(TestFrames.audioConfig());
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.audioConfig()));
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.video(0, true, 10)));
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.video(66, false, 10)));
+
+        List<EncodedFrame> configs = filter.onConnected(133);
+        assertEquals(2, configs.size());
+        assertTrue(configs.get(0).isVideo());
+        assertEquals(133, configs.get(0).timestamp);
+        // The connection already got these
+        assertEquals(ReconnectFilter.SKIP, filter.filter(TestFrames.videoConfig()));
+        assertEquals(ReconnectFilter.DROP, filter.filter(TestFrames.video(133, false, 10)));
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.audio(140, 10)));
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.video(1000, true, 10)));
+        assertEquals(ReconnectFilter.SEND, filter.filter(TestFrames.video(1066, false, 10)));
+    }
+}
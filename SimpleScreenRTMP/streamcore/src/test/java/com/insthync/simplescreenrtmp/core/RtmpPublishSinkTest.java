@@ -0,0 +1,174 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtmpPublishSinkTest {
+    private final List<RtmpMessage> mReceived = new ArrayList<RtmpMessage>();
+    private RtmpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new RtmpServer(0, new RtmpServer.Listener() {
+            @Override
+            public void onMessage(String streamName, RtmpMessage message) {
+                synchronized (mReceived) {
+                    mReceived.add(message);
+                    mReceived.notifyAll();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+    }
+
+    @Test
+    public void publishesEveryFrameWithoutCoalescing() throws Exception {
+        StreamStats stats = new StreamStats();
+        RtmpPublishSink sink = new RtmpPublishSink(getUrl(), Clock.SYSTEM, stats, 0, 0, false);
+        List<EncodedFrame> frames = createFrames();
+        for (EncodedFrame frame : frames)
+            assertTrue(sink.write(frame) >= 0);
+        assertTrue(sink.isConnected());
+        long writesAfterConnect = stats.getSocketWrites();
+        List<RtmpMessage> received = awaitMessages(frames.size());
+        sink.close();
+        assertFrames(frames, received);
+        assertTrue(writesAfterConnect >= frames.size());
+    }
+
+    @Test
+    public void coalescedFramesShareSocketWrites() throws Exception {
+        for (boolean useAggregateMessages : new boolean[]{false, true}) {
+            synchronized (mReceived) {
+                mReceived.clear();
+            }
+            ManualClock clock = new ManualClock();
+            StreamStats stats = new StreamStats(clock);
+            RtmpPublishSink sink = new RtmpPublishSink(getUrl(), clock, stats, 100, 64 * 1024, useAggregateMessages);
+            List<EncodedFrame> frames = createFrames();
+            sink.write(frames.get(0));
+            long connectWrites = stats.getSocketWrites();
+            for (int i = 1; i < frames.size(); i++) {
+                sink.write(frames.get(i));
+                clock.advance(10);
+                sink.flushDue();
+            }
+            sink.close();
+            List<RtmpMessage> received = awaitMessages(frames.size());
+            assertFrames(frames, received);
+            // 1 write for the key frame and then one per 100ms window
+            assertTrue(stats.getSocketWrites() - connectWrites <= frames.size() / 10 + 2);
+            assertTrue(stats.getAverageBytesPerWrite() > 100);
+        }
+    }
+
+    @Test
+    public void reconnectAfterFailedFlushStartsWithConfigAndKeyFrame() throws Exception {
+        ManualClock clock = new ManualClock();
+        RtmpPublishSink sink = new RtmpPublishSink(getUrl(), clock, new StreamStats(clock), 100, 64 * 1024, false);
+        sink.write(TestFrames.videoConfig());
+        sink.write(TestFrames.audioConfig());
+        sink.write(TestFrames.video(0, true, 1000));
+        awaitMessages(3);
+
+        mServer.disconnectClients();
+        // Only the flush notices the broken connection
+        int timestamp = 0;
+        for (int i = 0; i < 100 && sink.isConnected(); i++) {
+            timestamp += 23;
+            assertTrue(sink.write(TestFrames.audio(timestamp, 200)) >= 0);
+            clock.advance(100);
+            sink.flushDue();
+            Thread.sleep(10);
+        }
+        assertFalse(sink.isConnected());
+        synchronized (mReceived) {
+            mReceived.clear();
+        }
+
+        // The lost batch is reported once, then video waits for a key frame on the new connection
+        assertEquals(-1, sink.write(TestFrames.video(timestamp, false, 800)));
+        clock.advance(2000);
+        assertEquals(-1, sink.write(TestFrames.video(timestamp + 66, false, 800)));
+        assertTrue(sink.isConnected());
+        assertTrue(sink.write(TestFrames.video(timestamp + 133, true, 1000)) >= 0);
+        List<RtmpMessage> received = awaitMessages(3);
+        sink.close();
+        assertEquals(3, received.size());
+        assertArrayEquals(FlvMuxer.createTagBody(TestFrames.videoConfig()), received.get(0).payload);
+        assertArrayEquals(FlvMuxer.createTagBody(TestFrames.audioConfig()), received.get(1).payload);
+        assertEquals(timestamp + 133, received.get(2).timestamp);
+    }
+
+    @Test
+    public void pacedVideoLostOnDisconnectFailsNextWrite() throws Exception {
+        ManualClock clock = new ManualClock();
+        RtmpPublishSink sink = new RtmpPublishSink(getUrl(), clock, new StreamStats(clock), 0, 0, false);
+        // 10 kB/s, the key frame takes seconds to leave
+        sink.setPacer(new Pacer(clock, 80000, 1, 10000));
+        sink.write(TestFrames.videoConfig());
+        assertTrue(sink.write(TestFrames.video(0, true, 40000)) >= 0);
+        awaitMessages(1);
+
+        mServer.disconnectClients();
+        for (int i = 0; i < 100 && sink.isConnected(); i++) {
+            clock.advance(500);
+            sink.flushDue();
+            Thread.sleep(10);
+        }
+        assertFalse(sink.isConnected());
+        // The key frame was accepted but never fully sent
+        assertEquals(-1, sink.write(TestFrames.audio(23, 200)));
+        sink.close();
+    }
+
+    private String getUrl() {
+        return "rtmp://127.0.0.1:" + mServer.getPort() + "/live/test";
+    }
+
+    private static List<EncodedFrame> createFrames() {
+        List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+        frames.add(TestFrames.videoConfig());
+        frames.add(TestFrames.audioConfig());
+        frames.add(TestFrames.video(0, true, 5000));
+        for (int i = 1; i < 60; i++) {
+            frames.add(TestFrames.audio(i * 23, 200));
+            frames.add(TestFrames.video(i * 66, false, 800));
+        }
+        return frames;
+    }
+
+    private List<RtmpMessage> awaitMessages(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (mReceived) {
+            while (mReceived.size() < count && System.currentTimeMillis() < deadline)
+                mReceived.wait(100);
+            return new ArrayList<RtmpMessage>(mReceived);
+        }
+    }
+
+    private static void assertFrames(List<EncodedFrame> frames, List<RtmpMessage> received) {
+        assertEquals(frames.size(), received.size());
+        for (int i = 0; i < frames.size(); i++) {
+            EncodedFrame frame = frames.get(i);
+            RtmpMessage message = received.get(i);
+            assertEquals(FlvMuxer.getTagType(frame), message.type);
+            assertEquals(frame.timestamp, message.timestamp);
+            assertArrayEquals(FlvMuxer.createTagBody(frame), message.payload);
+        }
+    }
+}
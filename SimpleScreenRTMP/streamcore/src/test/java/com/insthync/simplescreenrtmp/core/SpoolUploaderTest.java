@@ -0,0 +1,116 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpoolUploaderTest {
+    private static final int RECORD_SIZE = FrameSpool.RECORD_HEADER_SIZE + 100;
+
+    private File mFile;
+    private StreamStats mStats;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("spool", ".bin");
+        mFile.delete();
+        mStats = new StreamStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void backlogOfAnotherSessionGetsItsOwnPublish() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        spool.append(TestFrames.videoConfig());
+        spool.append(TestFrames.video(5000, true, 100));
+        spool.append(TestFrames.video(5066, false, 100));
+        // The next session starts over
+        spool.append(TestFrames.videoConfig());
+        spool.append(TestFrames.video(0, true, 100));
+        final List<List<EncodedFrame>> publishes = new ArrayList<List<EncodedFrame>>();
+        SpoolUploader uploader = new SpoolUploader(spool, new SpoolUploader.SinkFactory() {
+            @Override
+            public FrameSink open() {
+                final List<EncodedFrame> writes = new ArrayList<EncodedFrame>();
+                publishes.add(writes);
+                return new FrameSink() {
+                    @Override
+                    public int write(EncodedFrame frame) {
+                        writes.add(frame);
+                        return 0;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        }, mStats);
+        assertTrue(uploader.upload());
+        assertEquals(2, publishes.size());
+        // The second publish starts with the config, then the key frame of its session
+        assertTrue(publishes.get(1).get(0).isCodecConfig());
+        assertEquals(0, publishes.get(1).get(1).timestamp);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void stopAbortsABlockedUpload() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        spool.append(TestFrames.videoConfig());
+        spool.append(TestFrames.video(0, true, 100));
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        SpoolUploader uploader = new SpoolUploader(spool, new SpoolUploader.SinkFactory() {
+            @Override
+            public FrameSink open() {
+                return new AbortableFrameSink() {
+                    @Override
+                    public int write(EncodedFrame frame) {
+                        if (frame.isCodecConfig())
+                            return 0;
+                        writing.countDown();
+                        try {
+                            aborted.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return -1;
+                    }
+
+                    @Override
+                    public void abort() {
+                        aborted.countDown();
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        }, mStats);
+        uploader.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        long startTime = System.currentTimeMillis();
+        uploader.stop();
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(0, aborted.getCount());
+        assertFalse(uploader.isUploading());
+        // The frame which was not written stays for the next session
+        assertEquals(1, spool.size());
+        spool.close();
+    }
+}
@@ -0,0 +1,236 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.*;
+
+public class SpoolingSinkTest {
+    private static final int RECORD_SIZE = FrameSpool.RECORD_HEADER_SIZE + 100;
+
+    private File mFile;
+    private StreamStats mStats;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("spool", ".bin");
+        mFile.delete();
+        mStats = new StreamStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void spoolsDuringOutageAndUploadsBacklogAfterReconnect() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        List<EncodedFrame> uploaded = new ArrayList<EncodedFrame>();
+        SpoolUploader uploader = new SpoolUploader(spool, new RecordingSinkFactory(uploaded), mStats);
+        SwitchableSink live = new SwitchableSink();
+        SpoolingSink sink = new SpoolingSink(live, spool, uploader);
+
+        sink.write(TestFrames.videoConfig());
+        sink.write(TestFrames.video(0, true, 100));
+        sink.write(TestFrames.video(66, false, 100));
+        live.mIsConnected = false;
+        sink.write(TestFrames.video(133, false, 100));
+        sink.write(TestFrames.video(1000, true, 100));
+        assertTrue(sink.isSpooling());
+        // Config, the GOP already sent live, the failed frame and the next key frame
+        assertEquals(5, spool.size());
+
+        live.mIsConnected = true;
+        live.mWrites.clear();
+        sink.write(TestFrames.video(1066, false, 100));
+        sink.write(TestFrames.video(2000, true, 100));
+        assertFalse(sink.isSpooling());
+        // Headers are sent again before the key frame on the new connection
+        assertTrue(live.mWrites.get(0).isCodecConfig());
+        assertEquals(2000, live.mWrites.get(1).timestamp);
+
+        waitForUpload(uploader);
+        assertTrue(spool.isEmpty());
+        assertEquals(6, uploaded.size());
+        assertTrue(uploaded.get(0).isCodecConfig());
+        assertEquals(0, uploaded.get(1).timestamp);
+        assertEquals(6, mStats.getUploadedFrames());
+        sink.close();
+    }
+
+    @Test
+    public void spoolsFramesStillQueuedWhenTheSenderFails() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        SpoolUploader uploader = new SpoolUploader(spool, new RecordingSinkFactory(new ArrayList<EncodedFrame>()), mStats);
+        BlockingSink live = new BlockingSink();
+        AsyncFrameSink async = new AsyncFrameSink(live, 1 << 20, mStats, true);
+        SpoolingSink sink = new SpoolingSink(async, spool, uploader);
+
+        sink.write(TestFrames.videoConfig());
+        live.mIsConnected = false;
+        live.mIsBlocking = true;
+        // The sender is stuck on the key frame, everything after it waits in the queue
+        sink.write(TestFrames.video(0, true, 100));
+        live.mIsWriting.acquire();
+        sink.write(TestFrames.video(1000, true, 100));
+        sink.write(TestFrames.video(1066, false, 100));
+        live.mRelease.release();
+        waitForFailure(async);
+        sink.write(TestFrames.video(1133, false, 100));
+        assertTrue(sink.isSpooling());
+        // Config, both GOPs which may not have been sent, and the frame the queue refused
+        assertEquals(5, spool.size());
+        assertEquals(0, spool.peek().frame.timestamp);
+        live.mRelease.release(100);
+        sink.close();
+    }
+
+    @Test
+    public void fullSendQueueIsNotAnOutage() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        SpoolUploader uploader = new SpoolUploader(spool, new RecordingSinkFactory(new ArrayList<EncodedFrame>()), mStats);
+        BlockingSink live = new BlockingSink();
+        AsyncFrameSink async = new AsyncFrameSink(live, 150, mStats, true);
+        SpoolingSink sink = new SpoolingSink(async, spool, uploader);
+
+        sink.write(TestFrames.videoConfig());
+        waitForDelivery(async, 1);
+        // A slow but working connection
+        live.mIsBlocking = true;
+        sink.write(TestFrames.video(0, true, 100));
+        live.mIsWriting.acquire();
+        sink.write(TestFrames.video(66, false, 100));
+        assertTrue(sink.write(TestFrames.video(133, false, 100)) < 0);
+        assertFalse(sink.isSpooling());
+        assertTrue(spool.isEmpty());
+        assertEquals(1, mStats.getDroppedFrames());
+        live.mRelease.release(100);
+        sink.close();
+    }
+
+    @Test
+    public void goesLiveOnlyOnceTheSenderDelivered() throws Exception {
+        FrameSpool spool = new FrameSpool(mFile, 100 * RECORD_SIZE, mStats);
+        List<EncodedFrame> uploaded = new ArrayList<EncodedFrame>();
+        SpoolUploader uploader = new SpoolUploader(spool, new RecordingSinkFactory(uploaded), mStats);
+        SwitchableSink live = new SwitchableSink();
+        AsyncFrameSink async = new AsyncFrameSink(live, 1 << 20, mStats, true);
+        SpoolingSink sink = new SpoolingSink(async, spool, uploader);
+
+        sink.write(TestFrames.videoConfig());
+        sink.write(TestFrames.video(0, true, 100));
+        waitForDelivery(async, 2);
+        live.mIsConnected = false;
+        sink.write(TestFrames.video(66, false, 100));
+        waitForFailure(async);
+        sink.write(TestFrames.video(133, false, 100));
+        assertTrue(sink.isSpooling());
+
+        // Still down, the queue takes the key frame but the sender fails on it
+        sink.write(TestFrames.video(1000, true, 100));
+        waitForFailure(async);
+        sink.write(TestFrames.video(1066, false, 100));
+        assertTrue(sink.isSpooling());
+        assertFalse(uploader.isUploading());
+
+        live.mIsConnected = true;
+        sink.write(TestFrames.video(2000, true, 100));
+        waitForDelivery(async, 4);
+        sink.write(TestFrames.video(2066, false, 100));
+        assertFalse(sink.isSpooling());
+
+        waitForUpload(uploader);
+        // Config, the first GOP, both resume attempts and what came between them
+        assertEquals(7, uploaded.size());
+        assertTrue(uploaded.get(0).isCodecConfig());
+        assertEquals(2000, uploaded.get(6).timestamp);
+        sink.close();
+    }
+
+    private static void waitForDelivery(AsyncFrameSink async, long count) throws InterruptedException {
+        for (int i = 0; i < 500 && async.getDeliveredCount() < count; i++)
+            Thread.sleep(10);
+        assertEquals(count, async.getDeliveredCount());
+    }
+
+    private static void waitForFailure(AsyncFrameSink async) throws InterruptedException {
+        for (int i = 0; i < 500 && !async.getQueue().isFailed(); i++)
+            Thread.sleep(10);
+        assertTrue(async.getQueue().isFailed());
+    }
+
+    private static void waitForUpload(SpoolUploader uploader) throws InterruptedException {
+        for (int i = 0; i < 500 && uploader.isUploading(); i++)
+            Thread.sleep(10);
+    }
+
+    private static class RecordingSinkFactory implements SpoolUploader.SinkFactory {
+        private final List<EncodedFrame> mWrites;
+
+        RecordingSinkFactory(List<EncodedFrame> writes) {
+            mWrites = writes;
+        }
+
+        @Override
+        public FrameSink open() {
+            return new FrameSink() {
+                @Override
+                public int write(EncodedFrame frame) {
+                    mWrites.add(frame);
+                    return 0;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private static class SwitchableSink implements FrameSink {
+        volatile boolean mIsConnected = true;
+        final List<EncodedFrame> mWrites = new ArrayList<EncodedFrame>();
+
+        @Override
+        public int write(EncodedFrame frame) {
+            if (!mIsConnected)
+                return -1;
+            mWrites.add(frame);
+            return frame.data.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * While blocking, a write returns only once the test lets it, then fails if disconnected.
+     */
+    private static class BlockingSink implements FrameSink {
+        volatile boolean mIsConnected = true;
+        volatile boolean mIsBlocking;
+        final Semaphore mIsWriting = new Semaphore(0);
+        final Semaphore mRelease = new Semaphore(0);
+
+        @Override
+        public int write(EncodedFrame frame) {
+            if (mIsBlocking) {
+                mIsWriting.release();
+                mRelease.acquireUninterruptibly();
+            }
+            return mIsConnected ? frame.data.length : -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.insthync.simplescreenrtmp.core;
+
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpMessage;
+import com.insthync.simplescreenrtmp.core.rtmp.RtmpServer;
+
+import java.io.IOException;
+
+/**
+ * Throughput of the muxing, queueing and publishing path on the host JVM, run with `./gradlew :streamcore:benchmark`.
+ */
+public class StreamCoreBenchmark {
+    private static final int FRAMES = 200000;
+    private static final int PUBLISHED_FRAMES = 20000;
+
+    public static void main(String[] args) throws IOException {
+        EncodedFrame[] frames = new EncodedFrame[30];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = i == 0 ? TestFrames.video(i, true, 40000) : TestFrames.video(i, false, 4000);
+
+        // Warm up then measure
+        for (int round = 0; round < 2; round++) {
+            long bytes = 0;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++)
+                bytes += FlvMuxer.createTag(frames[i % frames.length]).length;
+            report("FlvMuxer.createTag", startTime, bytes);
+
+            NullSink nullSink = new NullSink();
+            AsyncFrameSink sink = new AsyncFrameSink(nullSink, 1 << 24, new StreamStats());
+            startTime = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++)
+                sink.write(frames[i % frames.length]);
+            // Closing discards what is queued, so wait for the sender thread to catch up
+            while (sink.getQueue().size() > 0)
+                Thread.yield();
+            sink.close();
+            report("AsyncFrameSink", startTime, nullSink.getStats().getBytes());
+        }
+
+        // Socket writes to a local RTMP server, one per frame and coalesced
+        RtmpServer server = new RtmpServer(0, new RtmpServer.Listener() {
+            @Override
+            public void onMessage(String streamName, RtmpMessage message) {
+            }
+        });
+        server.start();
+        String url = "rtmp://127.0.0.1:" + server.getPort() + "/live/benchmark";
+        publish("RtmpPublishSink", url, 0, false, frames);
+        publish("coalesced", url, 100, false, frames);
+        publish("aggregate", url, 100, true, frames);
+        server.close();
+    }
+
+    private static void publish(String name, String url, long windowMs, boolean useAggregateMessages, EncodedFrame[] frames) {
+        StreamStats stats = new StreamStats();
+        RtmpPublishSink sink = new RtmpPublishSink(url, Clock.SYSTEM, stats, windowMs, 64 * 1024, useAggregateMessages);
+        sink.write(TestFrames.videoConfig());
+        long connectWrites = stats.getSocketWrites();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < PUBLISHED_FRAMES; i++) {
+            EncodedFrame frame = i % 2 == 0 ? frames[i / 2 % frames.length] : TestFrames.audio(i, 400);
+            sink.write(frame);
+            sink.flushDue();
+        }
+        sink.close();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long writes = stats.getSocketWrites() - connectWrites;
+        System.out.println(String.format("%-20s %10.0f frames/s %8d writes %8d bytes/write",
+                name, PUBLISHED_FRAMES / seconds, writes, stats.getAverageBytesPerWrite()));
+    }
+
+    private static void report(String name, long startTime, long bytes) {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println(String.format("%-20s %10.0f frames/s %8.1f MB/s", name, FRAMES / seconds, bytes / seconds / 1e6));
+    }
+}
@@ -0,0 +1,46 @@
+package com.insthync.simplescreenrtmp.core;
+
+/**
+ * Synthetic encoder output for tests and benchmarks.
+ */
+final class TestFrames {
+    static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80};
+    static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private TestFrames() {
+    }
+
+    static EncodedFrame videoConfig() {
+        return new EncodedFrame(EncodedFrame.TYPE_VIDEO, EncodedFrame.FLAG_CODEC_CONFIG, 0, annexB(SPS, PPS));
+    }
+
+    static EncodedFrame audioConfig() {
+        return new EncodedFrame(EncodedFrame.TYPE_AUDIO, EncodedFrame.FLAG_CODEC_CONFIG, 0, new byte[]{0x12, 0x08});
+    }
+
+    static EncodedFrame video(int timestamp, boolean isKeyFrame, int size) {
+        byte[] nal = new byte[size];
+        nal[0] = (byte) (isKeyFrame ? 0x65 : 0x41);
+        for (int i = 1; i < size; i++)
+            nal[i] = (byte) (i % 200 + 1);
+        return new EncodedFrame(EncodedFrame.TYPE_VIDEO, isKeyFrame ? EncodedFrame.FLAG_KEY_FRAME : 0, timestamp, annexB(nal));
+    }
+
+    static EncodedFrame audio(int timestamp, int size) {
+        return new EncodedFrame(EncodedFrame.TYPE_AUDIO, 0, timestamp, new byte[size]);
+    }
+
+    static byte[] annexB(byte[]... units) {
+        int length = 0;
+        for (byte[] unit : units)
+            length += 4 + unit.length;
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] unit : units) {
+            data[offset + 3] = 1;
+            System.arraycopy(unit, 0, data, offset + 4, unit.length);
+            offset += 4 + unit.length;
+        }
+        return data;
+    }
+}
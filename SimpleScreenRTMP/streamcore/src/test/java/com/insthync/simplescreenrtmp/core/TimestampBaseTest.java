@@ -0,0 +1,17 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimestampBaseTest {
+    @Test
+    public void timestampsStartAtFirstFrameOfAnyTrack() throws Exception {
+        TimestampBase base = new TimestampBase();
+        assertFalse(base.isStarted());
+        assertEquals(0, base.toMillis(5000000));
+        assertTrue(base.isStarted());
+        assertEquals(1500, base.toMillis(6500000));
+        assertEquals(0, base.toMillis(4000000));
+    }
+}
@@ -0,0 +1,28 @@
+package com.insthync.simplescreenrtmp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WriteCoalescerTest {
+    @Test
+    public void holdsFramesForTheWindow() throws Exception {
+        ManualClock clock = new ManualClock();
+        WriteCoalescer coalescer = new WriteCoalescer(clock, 50, 1000);
+        assertEquals(-1, coalescer.getMillisUntilDue());
+        assertFalse(coalescer.add(TestFrames.audio(0, 100)));
+        clock.advance(20);
+        assertFalse(coalescer.add(TestFrames.video(20, false, 100)));
+        assertEquals(30, coalescer.getMillisUntilDue());
+        clock.advance(30);
+        assertEquals(0, coalescer.getMillisUntilDue());
+        assertEquals(2, coalescer.take().size());
+        assertTrue(coalescer.isEmpty());
+
+        // Key frames and full batches do not wait
+        assertTrue(coalescer.add(TestFrames.video(50, true, 10)));
+        coalescer.take();
+        assertFalse(coalescer.add(TestFrames.audio(50, 600)));
+        assertTrue(coalescer.add(TestFrames.audio(70, 600)));
+    }
+}
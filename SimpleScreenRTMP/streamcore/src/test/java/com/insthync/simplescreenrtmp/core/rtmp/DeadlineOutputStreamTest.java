@@ -0,0 +1,53 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import com.insthync.simplescreenrtmp.core.Clock;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+public class DeadlineOutputStreamTest {
+    @Test
+    public void closesSocketWhenAWriteStalls() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        Socket socket = new Socket();
+        socket.setSendBufferSize(4096);
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        // Accepted, but never read from
+        Socket peer = server.accept();
+        OutputStream out = new DeadlineOutputStream(socket, socket.getOutputStream(), Clock.SYSTEM, 300);
+        byte[] data = new byte[64 * 1024];
+        long startTime = System.currentTimeMillis();
+        try {
+            while (System.currentTimeMillis() - startTime < 10000)
+                out.write(data, 0, data.length);
+            fail("The stalled write never failed");
+        } catch (IOException expected) {
+        }
+        assertTrue(socket.isClosed());
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    public void leavesAnIdleSocketOpen() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        Socket peer = server.accept();
+        OutputStream out = new DeadlineOutputStream(socket, socket.getOutputStream(), Clock.SYSTEM, 100);
+        out.write(new byte[100], 0, 100);
+        Thread.sleep(300);
+        assertFalse(socket.isClosed());
+        socket.close();
+        peer.close();
+        server.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RtmpProtocolTest {
+    @Test
+    public void amf0RoundTrip() throws Exception {
+        byte[] data = Amf0.encode("connect", 1, Amf0.object("app", "live", "capabilities", 31, "fpad", false),
+                null, Arrays.<Object>asList("a", 2.5));
+        List<Object> values = Amf0.decode(data);
+        assertEquals(5, values.size());
+        assertEquals("connect", values.get(0));
+        assertEquals(1.0, values.get(1));
+        Map<?, ?> object = (Map<?, ?>) values.get(2);
+        assertEquals("live", object.get("app"));
+        assertEquals(31.0, object.get("capabilities"));
+        assertEquals(Boolean.FALSE, object.get("fpad"));
+        assertNull(values.get(3));
+        assertEquals(Arrays.<Object>asList("a", 2.5), values.get(4));
+    }
+
+    @Test
+    public void chunksRoundTrip() throws Exception {
+        byte[] large = new byte[10000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = (byte) i;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkWriter writer = new ChunkWriter(out);
+        writer.write(6, new RtmpMessage(RtmpMessage.TYPE_VIDEO, 1, 40, large));
+        writer.write(4, new RtmpMessage(RtmpMessage.TYPE_AUDIO, 1, 0x1000000, new byte[]{1, 2}));
+        writer.setChunkSize(4096);
+        writer.write(6, new RtmpMessage(RtmpMessage.TYPE_VIDEO, 1, 80, large));
+
+        ChunkReader reader = new ChunkReader(new ByteArrayInputStream(out.toByteArray()));
+        RtmpMessage first = reader.read();
+        assertEquals(RtmpMessage.TYPE_VIDEO, first.type);
+        assertEquals(40, first.timestamp);
+        assertArrayEquals(large, first.payload);
+        RtmpMessage second = reader.read();
+        // Extended timestamp
+        assertEquals(0x1000000, second.timestamp);
+        assertArrayEquals(new byte[]{1, 2}, second.payload);
+        reader.setChunkSize(4096);
+        RtmpMessage third = reader.read();
+        assertEquals(80, third.timestamp);
+        assertArrayEquals(large, third.payload);
+        assertEquals(out.size(), reader.getBytesRead());
+    }
+
+    @Test
+    public void splitsAggregateMessages() throws Exception {
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        tags.write(tag(RtmpMessage.TYPE_AUDIO, 100, new byte[]{1, 2, 3}));
+        tags.write(tag(RtmpMessage.TYPE_VIDEO, 120, new byte[]{4}));
+        RtmpMessage aggregate = new RtmpMessage(RtmpMessage.TYPE_AGGREGATE, 1, 1100, tags.toByteArray());
+        List<RtmpMessage> messages = aggregate.splitAggregate();
+        assertEquals(2, messages.size());
+        assertEquals(RtmpMessage.TYPE_AUDIO, messages.get(0).type);
+        assertEquals(1100, messages.get(0).timestamp);
+        assertArrayEquals(new byte[]{1, 2, 3}, messages.get(0).payload);
+        assertEquals(RtmpMessage.TYPE_VIDEO, messages.get(1).type);
+        assertEquals(1120, messages.get(1).timestamp);
+    }
+
+    @Test
+    public void parsesUrls() throws Exception {
+        RtmpUrl url = RtmpUrl.parse("rtmp://example.com/live/test");
+        assertEquals("example.com", url.host);
+        assertEquals(RtmpUrl.DEFAULT_PORT, url.port);
+        assertEquals("live", url.app);
+        assertEquals("test", url.streamName);
+        url = RtmpUrl.parse("rtmp://127.0.0.1:19350/app/inst/key?token=1");
+        assertEquals(19350, url.port);
+        assertEquals("app/inst", url.app);
+        assertEquals("key?token=1", url.streamName);
+        assertEquals("rtmp://127.0.0.1:19350/app/inst", url.getTcUrl());
+    }
+
+    private static byte[] tag(int type, int timestamp, byte[] body) {
+        byte[] tag = new byte[11 + body.length + 4];
+        tag[0] = (byte) type;
+        tag[3] = (byte) body.length;
+        tag[5] = (byte) (timestamp >>> 8);
+        tag[6] = (byte) timestamp;
+        System.arraycopy(body, 0, tag, 11, body.length);
+        tag[tag.length - 1] = (byte) (11 + body.length);
+        return tag;
+    }
+}
@@ -0,0 +1,174 @@
+package com.insthync.simplescreenrtmp.core.rtmp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal RTMP ingest stand-in for host side tests and tools. It accepts publishers, by default
+ * on the loopback interface only, and hands every media and data message to a {@link Listener}.
+ * Aggregate messages are split into their audio and video messages.
+ */
+public class RtmpServer {
+    private static final int WINDOW_ACK_SIZE = 2500000;
+    private static final int CHUNK_STREAM_CONTROL = 2;
+    private static final int CHUNK_STREAM_COMMAND = 3;
+
+    public interface Listener {
+        void onMessage(String streamName, RtmpMessage message);
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Listener mListener;
+    private final List<Socket> mClients = new ArrayList<Socket>();
+    private Thread mAcceptThread;
+
+    public RtmpServer(int port, Listener listener) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, listener);
+    }
+
+    /**
+     * @param bindAddress null accepts publishers on every interface
+     */
+    public RtmpServer(InetAddress bindAddress, int port, Listener listener) throws IOException {
+        mServerSocket = new ServerSocket(port, 50, bindAddress);
+        mListener = listener;
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public void start() {
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        }, "RtmpServer");
+        mAcceptThread.start();
+    }
+
+    public void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Drop every publisher connected right now, as a broken network would.
+     */
+    public void disconnectClients() {
+        synchronized (mClients) {
+            for (Socket client : mClients) {
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mClients.clear();
+        }
+    }
+
+    private void acceptClients() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (mClients) {
+                mClients.add(socket);
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                        // Client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "RtmpServer-client").start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+        OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+        Handshake.server(inputStream, outputStream);
+        ChunkReader chunkReader = new ChunkReader(inputStream);
+        ChunkWriter chunkWriter = new ChunkWriter(outputStream);
+        String streamName = null;
+
+        while (true) {
+            RtmpMessage message = chunkReader.read();
+            switch (message.type) {
+                case RtmpMessage.TYPE_SET_CHUNK_SIZE:
+                    chunkReader.setChunkSize(ByteBuffer.wrap(message.payload).getInt() & 0x7FFFFFFF);
+                    break;
+                case RtmpMessage.TYPE_COMMAND_AMF0: {
+                    List<Object> values = Amf0.decode(message.payload);
+                    String name = (String) values.get(0);
+                    Object transactionId = values.get(1);
+                    if ("connect".equals(name)) {
+                        chunkWriter.write(CHUNK_STREAM_CONTROL, new RtmpMessage(RtmpMessage.TYPE_WINDOW_ACK_SIZE, 0, 0, RtmpPublisher.int32(WINDOW_ACK_SIZE)));
+                        chunkWriter.write(CHUNK_STREAM_CONTROL, new RtmpMessage(RtmpMessage.TYPE_SET_PEER_BANDWIDTH, 0, 0,
+                                new byte[]{(byte) (WINDOW_ACK_SIZE >>> 24), (byte) (WINDOW_ACK_SIZE >>> 16), (byte) (WINDOW_ACK_SIZE >>> 8), (byte) WINDOW_ACK_SIZE, 2}));
+                        chunkWriter.write(CHUNK_STREAM_CONTROL, new RtmpMessage(RtmpMessage.TYPE_SET_CHUNK_SIZE, 0, 0, RtmpPublisher.int32(RtmpPublisher.CHUNK_SIZE)));
+                        chunkWriter.setChunkSize(RtmpPublisher.CHUNK_SIZE);
+                        sendCommand(chunkWriter, 0, "_result", transactionId,
+                                Amf0.object("fmsVer", "FMS/3,0,1,123", "capabilities", 31),
+                                status("NetConnection.Connect.Success"));
+                    } else if ("createStream".equals(name)) {
+                        sendCommand(chunkWriter, 0, "_result", transactionId, null, 1);
+                    } else if ("publish".equals(name)) {
+                        streamName = (String) values.get(3);
+                        sendCommand(chunkWriter, message.streamId, "onStatus", 0, null, status("NetStream.Publish.Start"));
+                    }
+                    outputStream.flush();
+                    break;
+                }
+                case RtmpMessage.TYPE_AUDIO:
+                case RtmpMessage.TYPE_VIDEO:
+                case RtmpMessage.TYPE_DATA_AMF0:
+                    mListener.onMessage(streamName, message);
+                    break;
+                case RtmpMessage.TYPE_AGGREGATE:
+                    for (RtmpMessage subMessage : message.splitAggregate())
+                        mListener.onMessage(streamName, subMessage);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static Map<String, Object> status(String code) {
+        return Amf0.object("level", "status", "code", code, "description", code);
+    }
+
+    private static void sendCommand(ChunkWriter chunkWriter, int streamId, String name, Object transactionId, Object... arguments) throws IOException {
+        Object[] values = new Object[arguments.length + 2];
+        values[0] = name;
+        values[1] = transactionId;
+        System.arraycopy(arguments, 0, values, 2, arguments.length);
+        chunkWriter.write(CHUNK_STREAM_COMMAND, new RtmpMessage(RtmpMessage.TYPE_COMMAND_AMF0, streamId, 0, Amf0.encode(values)));
+    }
+}